@@ -0,0 +1,167 @@
+package com.sqlorb;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Request log that never makes a request wait. Handler threads copy a record into a preallocated
+// ring of slots and return; one background thread formats and writes them. When the ring is full
+// the record is dropped (and counted), so a slow disk or terminal costs log lines, not latency.
+//
+//     log.log(Level.INFO, "/validate", 200, nanos, bytes, sql);
+//     2026-10-16T20:56:57.123Z INFO /validate 200 0.42ms 57B SELECT a FROM t
+//
+// Only the first sqlChars chars of the SQL are kept (0: none), with control chars shown as spaces.
+// Records below the configured level are skipped before any copying; INFO records are further
+// sampled one in sampleEvery, while ERROR records are always kept.
+final class AccessLog {
+
+    enum Level { OFF, ERROR, INFO }
+
+    // One record; fields are written by the thread that claimed the slot, then published
+    private static final class Slot {
+        Level level;
+        String path;
+        int status;
+        long timeMillis;
+        long nanos;
+        long bytes;
+        final char[] sql;
+        int sqlLength;
+        boolean truncated;
+
+        Slot(int sqlChars) {
+            sql = new char[sqlChars];
+        }
+    }
+
+    private final Level threshold;
+    private final int sampleEvery;
+    private final int sqlChars;
+    private final Writer out;
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLongArray published;        // sequence number each slot holds, -1 at first
+    private final AtomicLong claimed = new AtomicLong(); // next sequence to hand out
+    private volatile long consumed;                 // next sequence the writer will read
+    private volatile boolean idle;                  // the writer is parked (or about to) waiting for a record
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+
+    AccessLog(Level threshold, int sampleEvery, int sqlChars, int capacity, Writer out) {
+        if (sampleEvery < 1) throw new IllegalArgumentException("sampleEvery must be >= 1: " + sampleEvery);
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        this.threshold = threshold;
+        this.sampleEvery = sampleEvery;
+        this.sqlChars = Math.max(sqlChars, 0);
+        this.out = out;
+        slots = new Slot[threshold == Level.OFF ? 1 : capacity];
+        for (int i = 0; i < slots.length; i++) slots[i] = new Slot(this.sqlChars);
+        mask = slots.length - 1;
+        published = new AtomicLongArray(slots.length);
+        for (int i = 0; i < slots.length; i++) published.set(i, -1);
+        writer = new Thread(this::drain, "sqlorb-access-log");
+        writer.setDaemon(true);
+        if (threshold != Level.OFF) writer.start();
+    }
+
+    // Level names as on the command line: off, error, info
+    static Level level(String name) {
+        return Level.valueOf(name.toUpperCase());
+    }
+
+    boolean enabled(Level level) {
+        return level != Level.OFF && level.compareTo(threshold) <= 0;
+    }
+
+    // Records one request, or drops it; never blocks. bytes may be -1 and sql null (not known).
+    void log(Level level, String path, int status, long nanos, long bytes, CharSequence sql) {
+        if (!enabled(level)) return;
+        if (level == Level.INFO && sampleEvery > 1 && ThreadLocalRandom.current().nextInt(sampleEvery) != 0) return;
+
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= slots.length) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        Slot slot = slots[(int) sequence & mask];
+        slot.level = level;
+        slot.path = path;
+        slot.status = status;
+        slot.timeMillis = System.currentTimeMillis();
+        slot.nanos = nanos;
+        slot.bytes = bytes;
+        int length = sql == null ? 0 : Math.min(sql.length(), sqlChars);
+        for (int i = 0; i < length; i++) {
+            char c = sql.charAt(i);
+            slot.sql[i] = c < 0x20 ? ' ' : c;
+        }
+        slot.sqlLength = length;
+        slot.truncated = sql != null && sql.length() > length;
+        published.set((int) sequence & mask, sequence); // hands the slot to the writer
+        if (idle) LockSupport.unpark(writer);
+    }
+
+    // Records dropped because the ring was full
+    long dropped() {
+        return dropped.sum();
+    }
+
+    // The writer thread: formats published slots in order, flushing whenever it catches up
+    private void drain() {
+        StringBuilder line = new StringBuilder(128 + sqlChars);
+        long reportedDrops = 0;
+        long next = 0;
+        while (true) {
+            if (published.get((int) next & mask) != next) {
+                long drops = dropped.sum();
+                if (drops != reportedDrops) {
+                    write(Instant.now() + " ERROR access log full, " + (drops - reportedDrops) + " records dropped\n");
+                    reportedDrops = drops;
+                }
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    // nowhere to write; keep emptying the ring
+                }
+                // Sleeps until a producer unparks it. Either the producer sees idle and unparks, or
+                // the check after setting idle sees its record (both are volatile), so none is missed.
+                idle = true;
+                while (published.get((int) next & mask) != next) LockSupport.park(this);
+                idle = false;
+            }
+            Slot slot = slots[(int) next & mask];
+            line.setLength(0);
+            line.append(Instant.ofEpochMilli(slot.timeMillis)).append(' ').append(slot.level)
+                .append(' ').append(slot.path).append(' ').append(slot.status)
+                .append(' ').append(String.format(Locale.ROOT, "%.2f", slot.nanos / 1e6)).append("ms");
+            if (slot.bytes >= 0) line.append(' ').append(slot.bytes).append('B');
+            if (slot.sqlLength > 0) {
+                line.append(' ').append(slot.sql, 0, slot.sqlLength);
+                if (slot.truncated) line.append("...");
+            }
+            line.append('\n');
+            consumed = ++next; // the slot is free again
+            write(line);
+        }
+    }
+
+    private void write(CharSequence text) {
+        try {
+            out.append(text);
+        } catch (IOException e) {
+            // nowhere to write; keep emptying the ring
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.sqlorb;
+
+import java.io.IOException;
+import java.io.Reader;
+
+// Reads the statements of a /validate/batch body one at a time, straight off the request stream:
+//
+//     [ "SELECT a FROM t", {"id": "q2", "sql": "SELECT b FROM t"} ]     a JSON array, or
+//     {"id": 1, "sql": "SELECT a FROM t"}                               NDJSON, one value per line
+//     "SELECT b FROM t"
+//
+// A statement is a string of SQL, or an object with "sql" and optionally "id" (a string or a
+// number, echoed back as written); other members are ignored. Only the statement being read is
+// held in memory, and SQL longer than maxStatementChars is skipped over rather than kept.
+//
+// A malformed NDJSON line is reported as that statement's error and reading goes on with the
+// next line. In an array there is no telling where the next statement starts, so a malformed one
+// is reported and ends the batch.
+final class BatchReader {
+
+    // One statement: sql, or the reason there is none (error)
+    static final class Item {
+        final int index;   // 1-based position in the batch
+        final String id;   // JSON text to echo back: the client's id, or the index
+        final String sql;
+        final String error;
+
+        Item(int index, String id, String sql, String error) {
+            this.index = index;
+            this.id = id;
+            this.sql = sql;
+            this.error = error;
+        }
+    }
+
+    // Not a statement we can read; stackless, like SqlSyntaxException
+    private static final class Malformed extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        Malformed(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final Reader in;
+    private final int maxStatementChars;
+    private final char[] buffer = new char[8192];
+    private int buffered, next; // chars in buffer, and the next one to hand out
+    private int peek = -2;   // next char, -1 at the end, -2 if not read yet
+    private long position;   // chars consumed
+    private long lineStart;  // position just past the last '\n' consumed
+    private int index;
+    private boolean array;
+    private boolean started;
+    private boolean done;
+
+    BatchReader(Reader in, int maxStatementChars) {
+        this.in = in;
+        this.maxStatementChars = maxStatementChars;
+    }
+
+    // The next statement, or null at the end of the batch
+    Item next() throws IOException {
+        if (done) return null;
+        int counted = index;
+        long itemStart = position;
+        try {
+            if (!started) {
+                started = true;
+                skipWhitespace();
+                if (peek() == '[') {
+                    read();
+                    array = true;
+                    skipWhitespace();
+                    if (peek() == ']') {
+                        done = true;
+                        return null;
+                    }
+                }
+            } else if (array) {
+                skipWhitespace();
+                int c = read();
+                if (c == ']') {
+                    done = true;
+                    return null;
+                }
+                if (c != ',') throw malformed("expected ',' or ']'");
+            }
+            skipWhitespace();
+            itemStart = position;
+            if (peek() == -1) {
+                if (array) throw malformed("unterminated array");
+                done = true;
+                return null;
+            }
+            index++;
+            Item item = item();
+            if (!array) endOfLine();
+            return item;
+        } catch (Malformed e) {
+            if (index == counted) index++; // broken between statements: report it as one
+            if (array || peek() == -1) {
+                done = true;
+            } else if (lineStart <= itemStart) { // the error did not already take us past the line
+                skipLine();
+            }
+            return new Item(index, String.valueOf(index), null, "Malformed batch at char " + position + ": " + e.getMessage());
+        }
+    }
+
+    private Item item() throws IOException, Malformed {
+        int c = peek();
+        if (c == '"') {
+            StringBuilder sql = new StringBuilder();
+            boolean whole = string(sql);
+            return statement(String.valueOf(index), sql, whole);
+        }
+        if (c != '{') throw malformed("expected a string or an object");
+        read();
+        String id = String.valueOf(index);
+        StringBuilder sql = null;
+        boolean whole = true;
+        skipWhitespace();
+        if (peek() == '}') throw malformed("missing \"sql\"");
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') throw malformed("expected a member name");
+            StringBuilder name = new StringBuilder();
+            string(name);
+            skipWhitespace();
+            if (read() != ':') throw malformed("expected ':'");
+            skipWhitespace();
+            String member = name.toString();
+            if (member.equals("sql")) {
+                if (peek() != '"') throw malformed("\"sql\" must be a string");
+                sql = new StringBuilder();
+                whole = string(sql);
+            } else if (member.equals("id")) {
+                id = id();
+            } else {
+                skipValue(0);
+            }
+            skipWhitespace();
+            c = read();
+            if (c == '}') break;
+            if (c != ',') throw malformed("expected ',' or '}'");
+        }
+        if (sql == null) throw malformed("missing \"sql\"");
+        return statement(id, sql, whole);
+    }
+
+    private Item statement(String id, StringBuilder sql, boolean whole) {
+        if (!whole) return new Item(index, id, null, "Statement longer than " + maxStatementChars + " chars");
+        return new Item(index, id, sql.toString(), null);
+    }
+
+    // A string or number id, as JSON text
+    private String id() throws IOException, Malformed {
+        int c = peek();
+        if (c == '"') {
+            StringBuilder id = new StringBuilder();
+            if (!string(id)) throw malformed("id too long");
+            return Server.quote(id);
+        }
+        if (c == '-' || (c >= '0' && c <= '9')) {
+            StringBuilder id = new StringBuilder();
+            while (isNumberChar(peek())) {
+                if (id.length() == 64) throw malformed("id too long");
+                id.append((char) read());
+            }
+            if (isJsonNumber(id)) return id.toString(); // echoed as is, so it must be valid JSON
+        }
+        throw malformed("\"id\" must be a string or a number");
+    }
+
+    // -?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)?
+    private static boolean isJsonNumber(CharSequence s) {
+        int i = 0, n = s.length();
+        if (i < n && s.charAt(i) == '-') i++;
+        if (i < n && s.charAt(i) == '0') i++;
+        else if (i < n && s.charAt(i) >= '1' && s.charAt(i) <= '9') i = digits(s, i);
+        else return false;
+        if (i < n && s.charAt(i) == '.') {
+            int start = ++i;
+            if ((i = digits(s, i)) == start) return false;
+        }
+        if (i < n && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            if (i < n && (s.charAt(i) == '+' || s.charAt(i) == '-')) i++;
+            int start = i;
+            if ((i = digits(s, i)) == start) return false;
+        }
+        return i == n;
+    }
+
+    // Index just past the run of digits starting at i
+    private static int digits(CharSequence s, int i) {
+        while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') i++;
+        return i;
+    }
+
+    // Appends the decoded string to out, up to maxStatementChars; false if it was longer
+    private boolean string(StringBuilder out) throws IOException, Malformed {
+        read(); // opening quote
+        boolean whole = true;
+        while (true) {
+            int c = peek();
+            if (c == -1 || c == '\n') throw malformed("unterminated string");
+            read();
+            if (c == '"') return whole;
+            if (c == '\\') c = escape();
+            else if (c < 0x20) throw malformed("control character in string");
+            if (out.length() < maxStatementChars) out.append((char) c);
+            else whole = false;
+        }
+    }
+
+    private int escape() throws IOException, Malformed {
+        int c = read();
+        switch (c) {
+            case '"': case '\\': case '/': return c;
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) throw malformed("bad \\u escape");
+                    value = value * 16 + digit;
+                }
+                return value;
+            default:
+                throw malformed("bad escape");
+        }
+    }
+
+    // Any JSON value, unread
+    private void skipValue(int depth) throws IOException, Malformed {
+        if (depth > 64) throw malformed("nested too deep");
+        int c = peek();
+        if (c == '"') {
+            string(new StringBuilder(0));
+        } else if (c == '{' || c == '[') {
+            int close = c == '{' ? '}' : ']';
+            read();
+            skipWhitespace();
+            if (peek() == close) {
+                read();
+                return;
+            }
+            while (true) {
+                skipWhitespace();
+                if (close == '}') {
+                    if (peek() != '"') throw malformed("expected a member name");
+                    string(new StringBuilder(0));
+                    skipWhitespace();
+                    if (read() != ':') throw malformed("expected ':'");
+                    skipWhitespace();
+                }
+                skipValue(depth + 1);
+                skipWhitespace();
+                c = read();
+                if (c == close) return;
+                if (c != ',') throw malformed("expected ',' or '" + (char) close + "'");
+            }
+        } else if (isNumberChar(c) || (c >= 'a' && c <= 'z')) { // numbers, true, false, null
+            while (isNumberChar(peek()) || (peek() >= 'a' && peek() <= 'z')) read();
+        } else {
+            throw malformed("expected a value");
+        }
+    }
+
+    private static boolean isNumberChar(int c) {
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+    }
+
+    // NDJSON: nothing but spaces may follow a statement on its line
+    private void endOfLine() throws IOException, Malformed {
+        while (peek() == ' ' || peek() == '\t' || peek() == '\r') read();
+        int c = peek();
+        if (c == '\n') read();
+        else if (c != -1) throw malformed("expected one statement per line");
+    }
+
+    private void skipLine() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != '\n' && c != -1);
+    }
+
+    private void skipWhitespace() throws IOException {
+        int c = peek();
+        while (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+            read();
+            c = peek();
+        }
+    }
+
+    private int peek() throws IOException {
+        if (peek == -2) {
+            if (next == buffered) {
+                buffered = Math.max(in.read(buffer), 0); // -1 at the end: stays empty
+                next = 0;
+            }
+            peek = next < buffered ? buffer[next++] : -1;
+        }
+        return peek;
+    }
+
+    private int read() throws IOException {
+        int c = peek();
+        if (c != -1) {
+            peek = -2;
+            position++;
+            if (c == '\n') lineStart = position;
+        }
+        return c;
+    }
+
+    private Malformed malformed(String message) {
+        return new Malformed(message);
+    }
+}
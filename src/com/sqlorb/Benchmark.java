@@ -0,0 +1,594 @@
+package com.sqlorb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+// Simple throughput benchmark for the lexer and parser.
+// Usage: java com.sqlorb.Benchmark <mode> [test-file ...]
+// Without files it runs on every test/*.txt corpus (one query per non-comment line, like TestRunner).
+public class Benchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+    private static final long ROUND_NANOS = 500_000_000L;
+
+    public static void main(String[] args) throws IOException {
+        String mode = args.length > 0 ? args[0] : "lex";
+        List<String> queries = loadQueries(args);
+        if (queries.isEmpty()) {
+            System.err.println("No queries found.");
+            return;
+        }
+
+        switch (mode) {
+            case "lex":
+                benchLex(queries);
+                break;
+            case "reject":
+                benchReject();
+                break;
+            case "mapped":
+                benchMapped(queries);
+                break;
+            case "relex":
+                benchRelex(queries);
+                break;
+            case "skip":
+                benchSkip(queries);
+                break;
+            case "groupby":
+                benchGroupBy();
+                break;
+            case "alloc":
+                benchAlloc(queries);
+                break;
+            case "expr":
+                benchExpressions();
+                break;
+            case "inlist":
+                benchInList();
+                break;
+            case "script":
+                benchScript(queries);
+                break;
+            case "parallel":
+                benchParallel(queries);
+                break;
+            case "fingerprint":
+                benchFingerprint(queries);
+                break;
+            case "cache":
+                benchCache(queries);
+                break;
+            default:
+                System.err.println("Usage: java com.sqlorb.Benchmark lex|reject|mapped|relex|skip|groupby|alloc|expr|inlist|script|parallel|fingerprint|cache [test-file ...]");
+        }
+    }
+
+    // Tokens per second over the corpus (lines the lexer rejects are left out):
+    // "lex-list" builds Token objects, "lex" fills one reused TokenBuffer
+    private static void benchLex(List<String> corpus) {
+        List<String> queries = lexable(corpus);
+        TokenBuffer buffer = new TokenBuffer();
+        long tokensPerPass = 0;
+        for (String q : queries) tokensPerPass += new Lexer(q).tokenize(buffer).size();
+
+        Workload list = () -> {
+            long sink = 0;
+            for (String q : queries) sink += new Lexer(q).tokenize().size();
+            return sink;
+        };
+        Workload columnar = () -> {
+            long sink = 0;
+            for (String q : queries) sink += new Lexer(q).tokenize(buffer).size();
+            return sink;
+        };
+        report("lex-list", queries.size(), tokensPerPass, "tokens", measure(list));
+        report("lex", queries.size(), tokensPerPass, "tokens", measure(columnar));
+    }
+
+    // A ~20 MB statement with a syntax error in its first tokens: tokenizing everything before
+    // parsing versus letting the parser pull tokens from the lexer
+    private static void benchReject() {
+        StringBuilder sb = new StringBuilder("SELECT FROM users WHERE ");
+        while (sb.length() < 20_000_000) sb.append("amount = 1 AND name LIKE 'x%' AND ");
+        String sql = sb.append("id = 1;").toString();
+        TokenBuffer buffer = new TokenBuffer();
+
+        Workload eager = () -> {
+            new Lexer(sql).tokenize(buffer);
+            return rejected(new Parser(buffer));
+        };
+        Workload streaming = () -> rejected(new Parser(new Lexer(sql), buffer));
+        report("reject-eager", 1, sql.length(), "chars", measure(eager));
+        report("reject", 1, sql.length(), "chars", measure(streaming));
+    }
+
+    private static long rejected(Parser parser) {
+        try {
+            parser.parseQuery();
+            return 0;
+        } catch (SqlSyntaxException e) {
+            return 1;
+        }
+    }
+
+    // Lexes a ~256 MB file through a memory-mapped Utf8Input, clearing the token buffer after each
+    // statement, and reports throughput plus the heap in use afterwards (which should not depend on file size)
+    private static void benchMapped(List<String> corpus) throws IOException {
+        List<String> queries = lexable(corpus);
+        Path file = Files.createTempFile("sqlorb-bench", ".sql");
+        try {
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                long written = 0;
+                while (written < 256L << 20) {
+                    for (String q : queries) {
+                        out.write(q);
+                        out.write('\n');
+                        written += q.length() + 1;
+                    }
+                }
+            }
+            long bytes = Files.size(file);
+            TokenBuffer buffer = new TokenBuffer();
+            long begin = System.nanoTime();
+            Lexer lexer = new Lexer(Utf8Input.map(file));
+            buffer.reset(null);
+            long tokens = 0;
+            TokenType type;
+            do {
+                type = lexer.nextToken(buffer);
+                tokens++;
+                if (type == TokenType.SEMICOLON) buffer.reset(null);
+            } while (type != TokenType.EOF);
+            double seconds = (System.nanoTime() - begin) / 1e9;
+
+            System.gc();
+            Runtime rt = Runtime.getRuntime();
+            System.out.printf("%-12s %6d MB file  %12.0f tokens/s  %8.0f MB/s  heap in use %d MB%n", "mapped",
+                    bytes >> 20, tokens / seconds, (bytes >> 20) / seconds, (rt.totalMemory() - rt.freeMemory()) >> 20);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Single-character edits ("keystrokes") at random places in a 5000-line script:
+    // Lexer.relex() on the previous tokens versus lexing the whole new text
+    private static void benchRelex(List<String> corpus) {
+        List<String> queries = lexable(corpus);
+        StringBuilder sb = new StringBuilder();
+        for (int line = 0; line < 5000; line++) sb.append(queries.get(line % queries.size())).append('\n');
+        String script = sb.toString();
+
+        TokenBuffer tokens = new Lexer(script).tokenize(new TokenBuffer());
+        TokenBuffer full = new TokenBuffer();
+        java.util.Random random = new java.util.Random(1);
+        int[] edited = { -1 };
+
+        // alternately type " x" somewhere and delete it again, so the script keeps its shape
+        Workload relex = () -> {
+            if (edited[0] >= 0) {
+                Lexer.relex(tokens, edited[0], 2, "");
+                edited[0] = -1;
+            } else {
+                int offset = random.nextInt(script.length());
+                while (Character.isLetterOrDigit(script.charAt(offset))) offset++; // between words
+                Lexer.relex(tokens, offset, 0, " x");
+                edited[0] = offset;
+            }
+            return tokens.size();
+        };
+        Workload lexAll = () -> new Lexer(script).tokenize(full).size();
+        double relexRate = measure(relex);
+        double fullRate = measure(lexAll);
+        System.out.printf("%-12s 5000 lines, %d chars  relex %8.1f us/edit   full lex %8.1f us/edit%n",
+                "relex", script.length(), 1e6 / relexRate, 1e6 / fullRate);
+    }
+
+    // Scripts dominated by comments (license headers, "--" notes) and by long string literals, lexed
+    // from a String (String.indexOf skipping), a StringBuilder (plain charAt loop) and UTF-8 bytes
+    // (Utf8Input: SWAR ASCII decoding plus a window search)
+    private static void benchSkip(List<String> corpus) {
+        List<String> queries = lexable(corpus);
+        StringBuilder comments = new StringBuilder();
+        StringBuilder literals = new StringBuilder();
+        for (int i = 0; comments.length() < 4_000_000; i++) {
+            comments.append("/*\n");
+            for (int line = 0; line < 20; line++) {
+                comments.append(" * Licensed under the Apache License, Version 2.0; you may not use this file except in compliance.\n");
+            }
+            comments.append(" */\n-- ").append("generated statement, do not edit by hand. ".repeat(3)).append('\n');
+            comments.append(queries.get(i % queries.size())).append('\n');
+        }
+        for (int i = 0; literals.length() < 4_000_000; i++) {
+            literals.append("SELECT id FROM docs WHERE body = '")
+                    .append("Lorem ipsum dolor sit amet, it''s consectetur adipiscing elit. ".repeat(30))
+                    .append("' AND title = \"").append("x".repeat(200)).append("\";\n");
+        }
+
+        for (String[] named : new String[][] { { "comments", comments.toString() }, { "literals", literals.toString() } }) {
+            String script = named[1];
+            StringBuilder chars = new StringBuilder(script);
+            byte[] bytes = script.getBytes(StandardCharsets.UTF_8);
+            TokenBuffer buffer = new TokenBuffer();
+            Workload string = () -> new Lexer(script).tokenize(buffer).size();
+            Workload scalar = () -> new Lexer(chars).tokenize(buffer).size();
+            Workload utf8 = () -> new Lexer(new Utf8Input(java.nio.ByteBuffer.wrap(bytes))).tokenize(buffer).size();
+            System.out.printf("%-12s %6d KB  String %8.0f MB/s   charAt loop %8.0f MB/s   UTF-8 bytes %8.0f MB/s%n",
+                    named[0], script.length() >> 10, script.length() / 1048576.0 * measure(string),
+                    script.length() / 1048576.0 * measure(scalar), bytes.length / 1048576.0 * measure(utf8));
+        }
+    }
+
+    // Reporting-style queries with wide SELECT lists, every plain column repeated in GROUP BY and a
+    // HAVING clause mixing aggregates and grouped columns: lex, parse and check the GROUP BY / HAVING rules
+    private static void benchGroupBy() {
+        for (int width : new int[] { 10, 40, 250 }) {
+            StringBuilder select = new StringBuilder("SELECT ");
+            StringBuilder groupBy = new StringBuilder(" GROUP BY ");
+            for (int c = 0; c < width; c++) {
+                String column = c % 4 == 3 ? "UPPER(col_" + c + ")" : "col_" + c;
+                select.append(column).append(", ");
+                groupBy.append(c == 0 ? "" : ", ").append(column);
+            }
+            select.append("SUM(amount * price) AS total, COUNT(*), AVG(DISTINCT qty) FROM sales WHERE region = 'EU'");
+            String sql = select + groupBy.toString()
+                    + " HAVING SUM(amount * price) > 1000 AND col_0 IS NOT NULL AND COUNT(*) BETWEEN 2 AND 50";
+            TokenBuffer buffer = new TokenBuffer();
+            new Parser(new Lexer(sql), buffer).parseQuery(); // must be accepted
+            Workload parse = () -> {
+                new Parser(new Lexer(sql), buffer).parseQuery();
+                return buffer.size();
+            };
+            report("groupby-" + width, 1, sql.length(), "chars", measure(parse));
+        }
+    }
+
+    // Machine-generated shapes: long operator chains and OR lists, and nesting close to the default
+    // depth limit. Each one runs on a thread with a 256 KB stack, small enough that a parser which
+    // recursed per operator or per level would overflow it.
+    private static void benchExpressions() throws IOException {
+        int deep = Parser.DEFAULT_MAX_DEPTH - 10;
+        String[][] shapes = {
+            { "chain", "SELECT " + "price * qty + ".repeat(20_000) + "1 FROM t" },
+            { "or-list", "SELECT id FROM t WHERE " + "(id = 1 AND qty > 2) OR ".repeat(10_000) + "id = 0" },
+            { "parens", "SELECT " + "(".repeat(deep) + "a + 1" + ")".repeat(deep) + " FROM t" },
+            { "calls", "SELECT " + "ABS(".repeat(deep) + "a" + ")".repeat(deep) + " FROM t" },
+            { "case", "SELECT " + "CASE WHEN a > 1 THEN ".repeat(deep) + "a" + " ELSE b END".repeat(deep) + " FROM t" },
+        };
+        for (String[] shape : shapes) {
+            String sql = shape[1];
+            Thread thread = new Thread(null, () -> {
+                TokenBuffer buffer = new TokenBuffer();
+                Workload parse = () -> {
+                    new Parser(new Lexer(sql), buffer).parseQuery();
+                    return buffer.size();
+                };
+                try {
+                    parse.run();
+                    report("expr-" + shape[0], 1, sql.length(), "chars", measure(parse));
+                } catch (StackOverflowError e) {
+                    System.out.printf("%-12s stack overflow%n", "expr-" + shape[0]);
+                }
+            }, "bench-" + shape[0], 256 * 1024);
+            thread.start();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    // ORM-style "WHERE id IN (...)" with 1k and 50k literals (numbers, strings, and numbers with one
+    // expression at the end), lexed and parsed; elements/s shows whether the cost stays linear
+    private static void benchInList() {
+        for (int size : new int[] { 1_000, 50_000 }) {
+            StringBuilder numbers = new StringBuilder("SELECT id, name FROM users WHERE id IN (");
+            StringBuilder strings = new StringBuilder("SELECT id, name FROM users WHERE name IN (");
+            for (int i = 0; i < size; i++) {
+                numbers.append(i == 0 ? "" : ", ").append(100_000 + i * 7);
+                strings.append(i == 0 ? "" : ", ").append("'user-").append(i).append('\'');
+            }
+            String[][] lists = {
+                { "numbers", numbers + ")" },
+                { "strings", strings + ")" },
+                { "mixed", numbers + ", ABS(id) + 2)" },
+            };
+            for (String[] list : lists) {
+                String sql = list[1];
+                Parser parser = new Parser();
+                Workload parse = () -> {
+                    parser.reset(sql).parseQuery();
+                    return parser.largestInList();
+                };
+                int elements = (int) parse.run();
+                report("in-" + list[0] + "-" + size / 1000 + "k", 1, elements, "elements", measure(parse));
+            }
+        }
+    }
+
+    // Heap allocated per validated query (corpus queries the parser accepts): a new Lexer and Parser
+    // per query versus the thread's pooled parser from ParserPool
+    private static void benchAlloc(List<String> corpus) {
+        List<String> queries = new ArrayList<>();
+        for (String q : lexable(corpus)) {
+            try {
+                Parser parser = new Parser(new Lexer(q));
+                if (parser.isEmpty()) continue;
+                parser.parseQuery();
+                queries.add(q);
+            } catch (SqlSyntaxException e) {
+                // rejected, skip
+            }
+        }
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        Workload fresh = () -> {
+            long sink = 0;
+            for (String q : queries) {
+                Parser parser = new Parser(new Lexer(q));
+                parser.parseQuery();
+                sink += parser.diagnostics().size();
+            }
+            return sink;
+        };
+        Workload pooled = () -> {
+            long sink = 0;
+            for (String q : queries) {
+                Parser parser = ParserPool.acquire(q);
+                parser.parseQuery();
+                sink += parser.diagnostics().size();
+            }
+            return sink;
+        };
+        for (Object[] named : new Object[][] { { "alloc-new", fresh }, { "alloc-pool", pooled } }) {
+            Workload workload = (Workload) named[1];
+            double rate = measure(workload);
+            long before = threads.getThreadAllocatedBytes(thread);
+            workload.run();
+            long bytes = threads.getThreadAllocatedBytes(thread) - before;
+            System.out.printf("%-12s %6d queries  %10.0f queries/s  %8.1f bytes/query%n",
+                    named[0], queries.size(), queries.size() * rate, (double) bytes / queries.size());
+        }
+    }
+
+    // Lexing with the fingerprint folded in as tokens are added ("lex-fp"), against plain lexing
+    // and against computing the fingerprint afterwards in a second pass over the tokens
+    private static void benchFingerprint(List<String> corpus) {
+        List<String> queries = lexable(corpus);
+        TokenBuffer plain = new TokenBuffer();
+        TokenBuffer folding = new TokenBuffer();
+        folding.setFingerprinting(true);
+        long tokensPerPass = 0;
+        for (String q : queries) tokensPerPass += new Lexer(q).tokenize(plain).size();
+
+        Workload lex = () -> {
+            long sink = 0;
+            for (String q : queries) sink += new Lexer(q).tokenize(plain).size();
+            return sink;
+        };
+        Workload during = () -> {
+            long sink = 0;
+            for (String q : queries) sink += new Lexer(q).tokenize(folding).fingerprint64();
+            return sink;
+        };
+        Workload after = () -> {
+            long sink = 0;
+            for (String q : queries) sink += new Lexer(q).tokenize(plain).fingerprint64();
+            return sink;
+        };
+        Workload text = () -> {
+            long sink = 0;
+            for (String q : queries) sink += new Lexer(q).tokenize(folding).canonicalText().length();
+            return sink;
+        };
+        report("lex", queries.size(), tokensPerPass, "tokens", measure(lex));
+        report("lex-fp", queries.size(), tokensPerPass, "tokens", measure(during));
+        report("lex-fp-pass", queries.size(), tokensPerPass, "tokens", measure(after));
+        report("lex-fp-text", queries.size(), tokensPerPass, "tokens", measure(text));
+    }
+
+    // Repeated traffic: the corpus with its numbers rewritten on every pass (same shapes, new
+    // literals), validated by a pooled parser and through a ValidationCache
+    private static void benchCache(List<String> corpus) {
+        List<String> queries = lexable(corpus);
+        List<String> traffic = new ArrayList<>();
+        for (int round = 0; round < 20; round++) {
+            for (String q : queries) traffic.add(q.replaceAll("\\b(\\d{2,})\\b", String.valueOf(round * 1000 + 17)));
+        }
+        ValidationCache cache = new ValidationCache(10_000);
+        Workload parsed = () -> {
+            long rejected = 0;
+            for (String q : traffic) {
+                try {
+                    ParserPool.acquire(q).parseQuery();
+                } catch (SqlSyntaxException e) {
+                    rejected++;
+                }
+            }
+            return rejected;
+        };
+        Workload cached = () -> {
+            long rejected = 0;
+            for (String q : traffic) {
+                try {
+                    cache.validate(q);
+                } catch (SqlSyntaxException e) {
+                    rejected++;
+                }
+            }
+            return rejected;
+        };
+        report("parse", traffic.size(), traffic.size(), "queries", measure(parsed));
+        report("cached", traffic.size(), traffic.size(), "queries", measure(cached));
+        System.out.printf("cache: %d hits, %d misses, %d entries%n", cache.hits(), cache.misses(), cache.size());
+    }
+
+    // A ~50 MB script built from the corpus, validated by one ScriptParser and by a
+    // ParallelScriptParser on pools of 1, 2, 4, ... workers up to the number of cores
+    private static void benchParallel(List<String> corpus) {
+        StringBuilder sb = new StringBuilder();
+        List<String> queries = lexable(corpus);
+        int statements = 0;
+        while (sb.length() < 50_000_000) {
+            for (String q : queries) {
+                sb.append(q).append(";\n");
+                statements++;
+            }
+        }
+        String script = sb.toString();
+        Workload sequential = () -> {
+            ScriptParser statementsOf = new ScriptParser(script);
+            long n = 0;
+            while (statementsOf.next()) n++;
+            return n;
+        };
+        reportScript("sequential", statements, script.length(), measure(sequential));
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int workers = 1; ; workers = Math.min(workers * 2, cores)) {
+            ForkJoinPool pool = new ForkJoinPool(workers);
+            ParallelScriptParser parallel = new ParallelScriptParser(pool, ParallelScriptParser.DEFAULT_CHUNK_SIZE);
+            Workload chunked = () -> {
+                long[] n = new long[1];
+                parallel.validate(script, s -> n[0]++);
+                return n[0];
+            };
+            reportScript("parallel-" + workers, statements, script.length(), measure(chunked));
+            pool.shutdown();
+            if (workers == cores) break;
+        }
+    }
+
+    private static void reportScript(String name, int statements, int chars, double passesPerSecond) {
+        System.out.printf("%-12s %6d statements  %8.1f MB/s  %10.0f statements/s%n",
+                name, statements, chars * passesPerSecond / 1e6, statements * passesPerSecond);
+    }
+
+    // One script of ~100k statements built from the corpus: "script" streams it through a
+    // ScriptParser, "script-split" cuts it at every ';' and parses each piece on its own. The
+    // token buffer a ScriptParser ends up with shows memory tracks statements, not the script.
+    private static void benchScript(List<String> corpus) {
+        StringBuilder sb = new StringBuilder();
+        int statements = 0;
+        List<String> queries = lexable(corpus);
+        while (statements < 100_000) {
+            for (String q : queries) {
+                String trimmed = q.trim();
+                if (trimmed.endsWith(";")) trimmed = trimmed.substring(0, trimmed.length() - 1);
+                if (trimmed.indexOf(';') >= 0) continue; // would not split like the script parser
+                sb.append(trimmed).append(";\n");
+                statements++;
+            }
+        }
+        String script = sb.toString();
+        int count = statements;
+        Parser parser = new Parser();
+
+        Workload streamed = () -> {
+            ScriptParser statementsOf = new ScriptParser(parser.reset(script));
+            long invalid = 0;
+            while (statementsOf.next()) {
+                if (!statementsOf.isValid()) invalid++;
+            }
+            return invalid;
+        };
+        Workload split = () -> {
+            long invalid = 0;
+            for (String piece : script.split(";")) {
+                if (parser.reset(piece).isEmpty()) continue;
+                try {
+                    parser.parseQuery();
+                } catch (SqlSyntaxException e) {
+                    invalid++;
+                }
+            }
+            return invalid;
+        };
+        reportScript("script", count, script.length(), measure(streamed));
+        reportScript("script-split", count, script.length(), measure(split));
+        Parser fresh = new Parser();
+        ScriptParser statementsOf = new ScriptParser(fresh.reset(script));
+        statementsOf.next();
+        int firstStatement = fresh.retainedTokens();
+        while (statementsOf.next()) {
+            // run to the end
+        }
+        System.out.printf("script: %d chars; token slots held after the first statement %d, after all %d%n",
+                script.length(), firstStatement, fresh.retainedTokens());
+    }
+
+    interface Workload {
+        long run(); // returns something derived from the work so the JIT cannot drop it
+    }
+
+    // Best passes-per-second over the measured rounds
+    static double measure(Workload workload) {
+        long sink = 0;
+        double best = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long passes = 0;
+            long begin = System.nanoTime();
+            long elapsed;
+            do {
+                sink += workload.run();
+                passes++;
+                elapsed = System.nanoTime() - begin;
+            } while (elapsed < ROUND_NANOS);
+            if (round >= WARMUP_ROUNDS) best = Math.max(best, passes * 1e9 / elapsed);
+        }
+        if (sink == 42) System.out.print(""); // keep the results alive
+        return best;
+    }
+
+    static void report(String name, int queries, long unitsPerPass, String unit, double passesPerSecond) {
+        System.out.printf("%-12s %6d queries  %12.0f %s/s  %10.0f queries/s%n",
+                name, queries, unitsPerPass * passesPerSecond, unit, queries * passesPerSecond);
+    }
+
+    // Corpus lines the lexer accepts
+    static List<String> lexable(List<String> corpus) {
+        List<String> queries = new ArrayList<>();
+        TokenBuffer buffer = new TokenBuffer();
+        for (String q : corpus) {
+            try {
+                new Lexer(q).tokenize(buffer);
+                queries.add(q);
+            } catch (SqlSyntaxException e) {
+                // not lexable, skip
+            }
+        }
+        return queries;
+    }
+
+    static List<String> loadQueries(String[] args) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) files.add(new File(args[i]));
+        if (files.isEmpty()) {
+            File[] corpora = new File("test").listFiles((dir, name) -> name.endsWith(".txt"));
+            if (corpora != null) {
+                for (File f : corpora) files.add(f);
+            }
+        }
+
+        List<String> queries = new ArrayList<>();
+        for (File f : files) {
+            for (String line : Files.readAllLines(f.toPath(), StandardCharsets.UTF_8)) {
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("--") || trimmed.startsWith("#") || trimmed.startsWith("/*")) {
+                    continue;
+                }
+                queries.add(line);
+            }
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,50 @@
+package com.sqlorb;
+
+// A lexical problem that does not stop tokenization (unknown characters, unclosed comments...).
+// The lexer only records these on the TokenBuffer; the caller decides whether and how to show them.
+public final class Diagnostic {
+
+    public enum Severity { WARNING, ERROR }
+
+    public enum Code {
+        UNKNOWN_CHARACTER(Severity.WARNING, "Unknown character"),
+        UNTERMINATED_COMMENT(Severity.WARNING, "Unterminated /* comment"),
+        UNTERMINATED_IDENTIFIER(Severity.WARNING, "Unterminated `quoted identifier`");
+
+        public final Severity severity;
+        final String description;
+
+        Code(Severity severity, String description) {
+            this.severity = severity;
+            this.description = description;
+        }
+    }
+
+    public final Code code;
+    public final int position; // char offset into the source
+    public final int length;   // chars covered, starting at position
+
+    public Diagnostic(Code code, int position, int length) {
+        this.code = code;
+        this.position = position;
+        this.length = length;
+    }
+
+    public Severity severity() {
+        return code.severity;
+    }
+
+    // e.g. "Unknown character '?' at position 12"
+    public String message(CharSequence source) {
+        String msg = code.description;
+        if (code == Code.UNKNOWN_CHARACTER) {
+            msg += " '" + source.subSequence(position, position + length) + "'";
+        }
+        return msg + " at position " + SqlInput.describe(source, position);
+    }
+
+    @Override
+    public String toString() {
+        return code + "@" + position;
+    }
+}
@@ -0,0 +1,57 @@
+package com.sqlorb;
+
+import java.util.Locale;
+
+// A 128-bit, literal-insensitive digest of a query's tokens (see TokenBuffer.fingerprint()), for
+// keying caches and grouping traffic by query shape:
+//
+//     SELECT * FROM users WHERE id = 42     -- same fingerprint as
+//     select *  from Users where ID = 7 /* retry */
+//
+// The algorithm is fixed: the same tokens give the same fingerprint in every process and version,
+// so fingerprints can be stored. Numbers and strings stay distinct (LIMIT ? is not LIMIT '?').
+public final class Fingerprint {
+    public final long high;
+    public final long low;
+
+    public Fingerprint(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    // Lexes all of sql (throws SqlLexicalException if it cannot be lexed)
+    public static Fingerprint of(CharSequence sql) {
+        return new Lexer(sql).tokenize(new TokenBuffer()).fingerprint();
+    }
+
+    // The 64-bit form, for callers that key on a long
+    public long hash64() {
+        return low;
+    }
+
+    // 32 lowercase hex digits
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%016x%016x", high, low);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Fingerprint && ((Fingerprint) o).high == high && ((Fingerprint) o).low == low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (low ^ (low >>> 32));
+    }
+
+    // Final avalanche of a lane (MurmurHash3's fmix64), so every input bit reaches every output bit
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,68 @@
+package com.sqlorb;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts non-negative values in log-linear buckets, the way HdrHistogram does: every power of two
+// is split into four buckets, so a bucket's upper bound is at most 25% above any value in it,
+// whatever the magnitude. Values up to 2^lowestBit share the first bucket; values above
+// 2^highestBit only count towards +Inf.
+//
+// record() is a few LongAdder increments: no lock, and threads recording at the same time land
+// on different cells instead of fighting over one. Reads sum the adders, so a scrape taken while
+// others record is not a snapshot, but every count it shows is one that happened.
+final class Histogram {
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final int lowestBit;
+    private final LongAdder[] buckets; // the last one is overflow (+Inf only)
+    private final long[] bounds;       // inclusive upper bound of each bucket but the last
+    private final LongAdder sum = new LongAdder();
+
+    Histogram(int lowestBit, int highestBit) {
+        if (lowestBit < SUB_BITS || highestBit <= lowestBit || highestBit > 62) {
+            throw new IllegalArgumentException("bad range: 2^" + lowestBit + " to 2^" + highestBit);
+        }
+        this.lowestBit = lowestBit;
+        int count = 1 + (highestBit - lowestBit) * SUB_BUCKETS;
+        bounds = new long[count];
+        bounds[0] = 1L << lowestBit;
+        for (int i = 1; i < count; i++) {
+            int octave = lowestBit + (i - 1) / SUB_BUCKETS;
+            int sub = (i - 1) % SUB_BUCKETS + 1;
+            bounds[i] = (1L << octave) + ((long) sub << (octave - SUB_BITS));
+        }
+        buckets = new LongAdder[count + 1];
+        for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+    }
+
+    void record(long value) {
+        buckets[index(Math.max(value, 0))].increment();
+        sum.add(value);
+    }
+
+    private int index(long value) {
+        if (value <= bounds[0]) return 0;
+        long v = value - 1; // bounds are inclusive
+        int octave = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (octave - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min(1 + (octave - lowestBit) * SUB_BUCKETS + sub, buckets.length - 1);
+    }
+
+    // Appends the Prometheus text form: cumulative _bucket lines, then _sum and _count. Bounds and
+    // the sum are divided by unit (1e9 turns nanoseconds into seconds). labels is "" or
+    // "name=\"value\"," pairs ending in a comma.
+    void appendTo(StringBuilder out, String name, String labels, double unit) {
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_bucket{").append(labels).append("le=\"").append(bounds[i] / unit)
+               .append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += buckets[bounds.length].sum();
+        out.append(name).append("_bucket{").append(labels).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        String plain = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        out.append(name).append("_sum").append(plain).append(' ').append(sum.sum() / unit).append('\n');
+        out.append(name).append("_count").append(plain).append(' ').append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,170 @@
+package com.sqlorb;
+
+// Keyword table used by the Lexer. Lookups work directly on the source characters
+// (ASCII case-folded while hashing), so recognising a keyword never builds a String.
+final class Keywords {
+    private static final int TABLE_SIZE = 256; // power of two, roughly 3x the keyword count
+    private static final int MASK = TABLE_SIZE - 1;
+    private static final int MAX_LENGTH = 11;   // "TRANSACTION"
+
+    private static final char[][] WORDS = new char[TABLE_SIZE][];
+    private static final TokenType[] TYPES = new TokenType[TABLE_SIZE];
+    private static final String[] WORD_OF = new String[TokenType.values().length]; // by TokenType ordinal
+
+    static {
+        register("SELECT", TokenType.SELECT);
+        register("FROM", TokenType.FROM);
+        register("WHERE", TokenType.WHERE);
+        register("DISTINCT", TokenType.DISTINCT);
+        register("AS", TokenType.AS);
+        register("ORDER", TokenType.ORDER_BY);
+        register("GROUP", TokenType.GROUP_BY);
+        register("HAVING", TokenType.HAVING);
+        register("LIMIT", TokenType.LIMIT);
+        register("OFFSET", TokenType.OFFSET);
+        register("FETCH", TokenType.FETCH);
+        register("TOP", TokenType.TOP);
+        register("INSERT", TokenType.INSERT);
+        register("INTO", TokenType.INTO);
+        register("VALUES", TokenType.VALUES);
+        register("UPDATE", TokenType.UPDATE);
+        register("SET", TokenType.SET);
+        register("DELETE", TokenType.DELETE);
+        register("CREATE", TokenType.CREATE);
+        register("ALTER", TokenType.ALTER);
+        register("DROP", TokenType.DROP);
+        register("TRUNCATE", TokenType.TRUNCATE);
+        register("RENAME", TokenType.RENAME);
+        register("DATABASE", TokenType.DATABASE);
+        register("TABLE", TokenType.TABLE);
+        register("VIEW", TokenType.VIEW);
+        register("INDEX", TokenType.INDEX);
+        register("SEQUENCE", TokenType.SEQUENCE);
+        register("SCHEMA", TokenType.SCHEMA);
+        register("PRIMARY", TokenType.PRIMARY_KEY);
+        register("FOREIGN", TokenType.FOREIGN_KEY);
+        register("REFERENCES", TokenType.REFERENCES);
+        register("UNIQUE", TokenType.UNIQUE);
+        register("NOT", TokenType.NOT);
+        register("CHECK", TokenType.CHECK);
+        register("DEFAULT", TokenType.DEFAULT);
+        register("JOIN", TokenType.JOIN);
+        register("INNER", TokenType.INNER_JOIN);
+        register("LEFT", TokenType.LEFT_JOIN);
+        register("RIGHT", TokenType.RIGHT_JOIN);
+        register("FULL", TokenType.FULL_JOIN);
+        register("CROSS", TokenType.CROSS_JOIN);
+        register("ON", TokenType.ON);
+        register("USING", TokenType.USING);
+        register("UNION", TokenType.UNION);
+        register("INTERSECT", TokenType.INTERSECT);
+        register("EXCEPT", TokenType.EXCEPT);
+        register("IN", TokenType.IN);
+        register("EXISTS", TokenType.EXISTS);
+        register("ANY", TokenType.ANY);
+        register("ALL", TokenType.ALL);
+        register("AND", TokenType.AND);
+        register("OR", TokenType.OR);
+        register("CASE", TokenType.CASE);
+        register("WHEN", TokenType.WHEN);
+        register("THEN", TokenType.THEN);
+        register("ELSE", TokenType.ELSE);
+        register("END", TokenType.END);
+        register("NULL", TokenType.NULL);
+        register("IS", TokenType.IS);
+        register("TRUE", TokenType.TRUE);
+        register("FALSE", TokenType.FALSE);
+        register("ASC", TokenType.ASC);
+        register("DESC", TokenType.DESC);
+        register("BETWEEN", TokenType.BETWEEN);
+        register("LIKE", TokenType.LIKE);
+        register("ESCAPE", TokenType.ESCAPE);
+        register("NULLS", TokenType.NULLS);
+        register("FIRST", TokenType.FIRST);
+        register("LAST", TokenType.LAST);
+        register("COLLATE", TokenType.COLLATE);
+        register("WITH", TokenType.WITH);
+        register("ROLLUP", TokenType.ROLLUP);
+        register("COUNT", TokenType.COUNT);
+        register("SUM", TokenType.SUM);
+        register("AVG", TokenType.AVG);
+        register("MIN", TokenType.MIN);
+        register("MAX", TokenType.MAX);
+        register("COMMIT", TokenType.COMMIT);
+        register("ROLLBACK", TokenType.ROLLBACK);
+        register("SAVEPOINT", TokenType.SAVEPOINT);
+        register("BEGIN", TokenType.BEGIN);
+        register("TRANSACTION", TokenType.TRANSACTION);
+        register("GRANT", TokenType.GRANT);
+        register("REVOKE", TokenType.REVOKE);
+    }
+
+    private Keywords() {
+    }
+
+    // Returns the keyword type for input[start, end), or IDENTIFIER if the word is not reserved
+    static TokenType lookup(CharSequence input, int start, int end) {
+        int length = end - start;
+        if (length < 2 || length > MAX_LENGTH) return TokenType.IDENTIFIER;
+
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            char c = input.charAt(i);
+            if (c >= 0x80) return lookupNonAscii(input, start, end);
+            h = 31 * h + upper(c);
+        }
+
+        int slot = spread(h, length);
+        char[] word;
+        while ((word = WORDS[slot]) != null) {
+            if (word.length == length && sameWord(word, input, start)) return TYPES[slot];
+            slot = (slot + 1) & MASK;
+        }
+        return TokenType.IDENTIFIER;
+    }
+
+    // The word a keyword token was spelled with (in upper case), or null if type is not a keyword
+    static String word(TokenType type) {
+        return WORD_OF[type.ordinal()];
+    }
+
+    // Rare path: String.toUpperCase() maps a few non-ASCII letters onto ASCII ones
+    // (e.g. dotless i, U+0131 -> 'I'), so keep the old behaviour for those words.
+    private static TokenType lookupNonAscii(CharSequence input, int start, int end) {
+        String upper = input.subSequence(start, end).toString().toUpperCase();
+        for (int i = 0; i < upper.length(); i++) {
+            if (upper.charAt(i) >= 0x80) return TokenType.IDENTIFIER;
+        }
+        return lookup(upper, 0, upper.length());
+    }
+
+    private static boolean sameWord(char[] word, CharSequence input, int start) {
+        for (int i = 0; i < word.length; i++) {
+            if (word[i] != upper(input.charAt(start + i))) return false;
+        }
+        return true;
+    }
+
+    private static char upper(char c) {
+        return (c >= 'a' && c <= 'z') ? (char) (c - ('a' - 'A')) : c;
+    }
+
+    private static int spread(int h, int length) {
+        h ^= length * 0x9E3779B9;
+        return (h ^ (h >>> 16) ^ (h >>> 8)) & MASK;
+    }
+
+    private static void register(String word, TokenType type) {
+        int h = 0;
+        for (int i = 0; i < word.length(); i++) {
+            h = 31 * h + word.charAt(i);
+        }
+        int slot = spread(h, word.length());
+        while (WORDS[slot] != null) {
+            slot = (slot + 1) & MASK;
+        }
+        WORDS[slot] = word.toCharArray();
+        TYPES[slot] = type;
+        WORD_OF[type.ordinal()] = word;
+    }
+}
@@ -1,456 +1,396 @@
 package com.sqlorb;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class Lexer {
-    private final String input;
+    private CharSequence input;
+    private String string;              // input, when it is a String (fast skipping via String.indexOf)
+    private SqlInput incremental;       // set when input is decoded on the fly (e.g. a mapped file)
+    private int limit;                  // chars known to exist; all of them for plain CharSequences
     private int pos = 0;
+    private int nextCr = -1;            // next '\r' at or after the last line comment, MAX_VALUE if none
 
-    public Lexer(String input)
+    // Tokens only record offsets into input; their text is materialized lazily (see Token.value())
+    public Lexer(CharSequence input)
      {
+        reset(input);
+    }
+
+    // Starts over on a new input, so one Lexer can serve query after query
+    public Lexer reset(CharSequence input)
+    {
+        return reset(input, 0);
+    }
+
+    // Starts scanning input at char from; token offsets stay offsets into the whole input
+    public Lexer reset(CharSequence input, int from)
+    {
         this.input = input;
+        this.string = input instanceof String ? (String) input : null;
+        this.incremental = input instanceof SqlInput ? (SqlInput) input : null;
+        this.limit = incremental != null ? 0 : input.length();
+        this.pos = from;
+        this.nextCr = -1;
+        return this;
     }
 
     public List<Token> tokenize() // method to add token to the list of tokens
     {
-        List<Token> tokens = new ArrayList<>();// store the object of the token class in the list of tokens
+        return tokenize(new TokenBuffer()).toList();
+    }
+
+    // Columnar form: fills (and returns) a reusable TokenBuffer instead of allocating Token objects
+    public TokenBuffer tokenize(TokenBuffer tokens)
+    {
+        tokens.reset(input);
+        while (nextToken(tokens) != TokenType.EOF) {
+            // keep pulling until EOF
+        }
+        return tokens;
+    }
 
-        while (pos < input.length()) //main while loop to read the input string character by character until we reach the end of the string
+    // Pull API: scans only as far as needed to append one more token to the buffer and returns
+    // its type. At the end of the input it appends EOF (and again on every further call).
+    //
+    // The scanner dispatches on a 128-entry character-class table; only non-ASCII characters take
+    // the slow path through Character.isWhitespace/isLetter/isDigit.
+    public TokenType nextToken(TokenBuffer tokens)
+    {
+        while (has(pos))
         {
             char current = input.charAt(pos);
+            int cls = current < 128 ? CLASS[current] : slowClass(current);
 
-            //  Skip comments
-            // SQL single-line comment: -- comment until EOL
-            if (current == '-' && pos + 1 < input.length() && input.charAt(pos + 1) == '-') 
+            switch (cls)
             {
-                pos += 2; // skip '--'
-                while (pos < input.length() && input.charAt(pos) != '\n' && input.charAt(pos) != '\r')
+                case C_SPACE:
                     pos++;
-                continue; // next loop will skip the newline as whitespace
-            }
+                    continue;
 
-            // Other single-line comment style: # comment until EOL
-            if (current == '#') 
-            {
-                pos++; // skip '#'
-                while (pos < input.length() && input.charAt(pos) != '\n' && input.charAt(pos) != '\r')
-                    pos++;
-                continue;
-            }
+                case C_LETTER:
+                    return readIdentifier(tokens);
+
+                case C_DIGIT:
+                    return readNumber(tokens);
+
+                case C_SINGLE:
+                    return emit(tokens, SINGLE[current], 1);
 
-            // Multi-line comment: /* comment */
-            if (current == '/' && pos + 1 < input.length() && input.charAt(pos + 1) == '*') 
-                {
-                pos += 2; // skip '/*'
-                while (pos + 1 < input.length()) 
-                {
-                    if (input.charAt(pos) == '*' && input.charAt(pos + 1) == '/') 
-                    {
-                        pos += 2; // consume '*/'
-                        break;
+                case C_MINUS: // '--' comment or MINUS
+                    if (has(pos + 1) && input.charAt(pos + 1) == '-') {
+                        skipLineComment(pos + 2);
+                        continue;
                     }
-                    pos++;
-                }
-                continue;
-            }
+                    return emit(tokens, TokenType.MINUS, 1);
 
-            // --------------------------------------------------------------
-           
-           
-           
-            // Skip starting Whitespace
-            if (Character.isWhitespace(current)) 
-            {
-                pos++;
-                continue;
-            }
+                case C_HASH: // '#' comment
+                    skipLineComment(pos + 1);
+                    continue;
 
-          
-            // Strings: single-quoted or double-quoted
-            if (current == '\'' || current == '"') 
-            {
-                int start = pos;
-                char quote = current;
-                pos++; // skip opening quote
-                StringBuilder sb = new StringBuilder();
-                boolean closed = false;
-
-                while (pos < input.length())
-                 {
-                    char c = input.charAt(pos);
-
-                    if (c == quote)
-                    {
-                        // escaped quote: '' or ""
-                     if (pos + 1 < input.length() && input.charAt(pos + 1) == quote)
-                       {
-                            sb.append(quote);
-                            pos += 2;
-                            continue;
-                        }
-                        pos++; // closing quote
-                        closed = true;
-                        break;
+                case C_SLASH: // '/* ... */' comment or SLASH
+                    if (has(pos + 1) && input.charAt(pos + 1) == '*') {
+                        skipBlockComment(tokens);
+                        continue;
                     }
+                    return emit(tokens, TokenType.SLASH, 1);
 
-                    sb.append(c);
-                    pos++;
-                }
+                case C_QUOTE: // 'string' or "string"
+                    return readString(tokens, current);
 
-                if (!closed)
-                 {
-                    throw new RuntimeException(
-                            "Error at position " + start + ": Unterminated column name/string starting with " + quote);
-                 }
+                case C_BACKTICK: // `quoted identifier`
+                    return readQuotedIdentifier(tokens);
 
-                tokens.add(new Token(TokenType.STRING, sb.toString(), start));  //string substring without quotes as token 
-                continue;
-            }
-            // Quoted identifiers: double-quoted "identifier" or backtick-quoted
-            // `identifier`
-            if (current == '"' || current == '`') 
-                {
-                int start = pos;
-                char quote = current;
-                pos++; // skip opening quote
-                StringBuilder sb = new StringBuilder();
-                while (pos < input.length()) 
-                    {
-                    char c = input.charAt(pos);
-                    if (c == quote) 
-                        {
-                        // allow doubled quote escaping (e.g., "")
-                        if (pos + 1 < input.length() && input.charAt(pos + 1) == quote) 
-                        {
-                            sb.append(quote);
-                            pos += 2;
-                            continue;
-                        } 
-                        else 
-                        {
-                            pos++; // consume closing quote
-                            break;
-                        }
+                case C_LT: // <=, <>, <
+                    if (has(pos + 1)) {
+                        char next = input.charAt(pos + 1);
+                        if (next == '=') return emit(tokens, TokenType.LE, 2);
+                        if (next == '>') return emit(tokens, TokenType.NOT_EQUALS_SQL, 2);
                     }
-                    sb.append(c);
-                    pos++;
-                }
-                // Treat quoted identifiers as IDENTIFIER tokens (keep original casing inside)
-                tokens.add(new Token(TokenType.IDENTIFIER, sb.toString(), start));
-                continue;
-            }
+                    return emit(tokens, TokenType.LT, 1);
 
-            // 2. Multi-character operators handlig separately before single-character ones to avoid confusion (e.g., >= vs >)
-            if (pos + 1 < input.length())
-              {
-                String twoChar = input.substring(pos, pos + 2);
-                switch (twoChar) // if we found the operator then we will shift to the next position and add the
-                                 // token to the list of tokens
-                {
-                    case ">=":
-                        tokens.add(new Token(TokenType.GE, ">=", pos));
-                        pos += 2;
-                        continue;
-                    case "<=":
-                        tokens.add(new Token(TokenType.LE, "<=", pos));
-                        pos += 2;
-                        continue;
-                    case "!=":
-                        tokens.add(new Token(TokenType.NOT_EQUALS, "!=", pos));
-                        pos += 2;
-                        continue;
-                    case "<>":
-                        tokens.add(new Token(TokenType.NOT_EQUALS_SQL, "<>", pos));
-                        pos += 2;
-                        continue;
-                }
+                case C_GT: // >=, >
+                    if (has(pos + 1) && input.charAt(pos + 1) == '=') return emit(tokens, TokenType.GE, 2);
+                    return emit(tokens, TokenType.GT, 1);
+
+                case C_BANG: // != (a lone '!' is unknown)
+                    if (has(pos + 1) && input.charAt(pos + 1) == '=') return emit(tokens, TokenType.NOT_EQUALS, 2);
+                    break;
+
+                default:
+                    break;
             }
 
-            // 3. Single-character operators and symbols (using direct enums)
-            switch (current) {
-                case ',':
-                    tokens.add(new Token(TokenType.COMMA, ",", pos));
-                    pos++;
-                    continue;
-                case '*':
-                    tokens.add(new Token(TokenType.STAR, "*", pos));
-                    pos++;
-                    continue;
-                case '+':
-                    tokens.add(new Token(TokenType.PLUS, "+", pos));
-                    pos++;
-                    continue;
-                case '-':
-                    tokens.add(new Token(TokenType.MINUS, "-", pos));
-                    pos++;
-                    continue;
-                case '/':
-                    tokens.add(new Token(TokenType.SLASH, "/", pos));
-                    pos++;
-                    continue;
-                case '%':
-                    tokens.add(new Token(TokenType.PERCENT, "%", pos));
-                    pos++;
-                    continue;
-                case '=':
-                    tokens.add(new Token(TokenType.EQUALS, "=", pos));
-                    pos++;
-                    continue;
-                case '>':
-                    tokens.add(new Token(TokenType.GT, ">", pos));
-                    pos++;
-                    continue;
-                case '<':
-                    tokens.add(new Token(TokenType.LT, "<", pos));
-                    pos++;
-                    continue;
-                case ';':
-                    tokens.add(new Token(TokenType.SEMICOLON, ";", pos));
-                    pos++;
-                    continue;
-                case '(':
-                    tokens.add(new Token(TokenType.LPAREN, "(", pos));
-                    pos++;
-                    continue;
-                case ')':
-                    tokens.add(new Token(TokenType.RPAREN, ")", pos));
-                    pos++;
-                    continue;
-                case '.':
-                    tokens.add(new Token(TokenType.DOT, ".", pos));
-                    pos++;
-                    continue;
-            }// end on main while loop
+            // Unknown character: recorded for the caller, scanning goes on
+            tokens.report(Diagnostic.Code.UNKNOWN_CHARACTER, pos, 1);
+            pos++;
+        }
+
+        tokens.add(TokenType.EOF, pos, pos);
+        return TokenType.EOF;
+    }
+
+    // Character classes for the scanner's dispatch table
+    private static final byte C_OTHER = 0;
+    private static final byte C_SPACE = 1;
+    private static final byte C_LETTER = 2;
+    private static final byte C_DIGIT = 3;
+    private static final byte C_SINGLE = 4;   // always a one-char token, see SINGLE
+    private static final byte C_MINUS = 5;
+    private static final byte C_HASH = 6;
+    private static final byte C_SLASH = 7;
+    private static final byte C_QUOTE = 8;
+    private static final byte C_BACKTICK = 9;
+    private static final byte C_LT = 10;
+    private static final byte C_GT = 11;
+    private static final byte C_BANG = 12;
+
+    private static final byte[] CLASS = new byte[128];
+    private static final TokenType[] SINGLE = new TokenType[128];
+    private static final boolean[] IDENT_PART = new boolean[128]; // letters, digits and '_'
+
+    static
+    {
+        for (char c = 0; c < 128; c++) {
+            if (Character.isWhitespace(c)) CLASS[c] = C_SPACE;
+            else if (Character.isLetter(c)) CLASS[c] = C_LETTER;
+            else if (Character.isDigit(c)) CLASS[c] = C_DIGIT;
+            IDENT_PART[c] = Character.isLetterOrDigit(c) || c == '_';
+        }
+        single(',', TokenType.COMMA);
+        single('*', TokenType.STAR);
+        single('+', TokenType.PLUS);
+        single('%', TokenType.PERCENT);
+        single('=', TokenType.EQUALS);
+        single(';', TokenType.SEMICOLON);
+        single('(', TokenType.LPAREN);
+        single(')', TokenType.RPAREN);
+        single('.', TokenType.DOT);
+        CLASS['-'] = C_MINUS;
+        CLASS['#'] = C_HASH;
+        CLASS['/'] = C_SLASH;
+        CLASS['\''] = C_QUOTE;
+        CLASS['"'] = C_QUOTE;
+        CLASS['`'] = C_BACKTICK;
+        CLASS['<'] = C_LT;
+        CLASS['>'] = C_GT;
+        CLASS['!'] = C_BANG;
+    }
 
-            // 4. Keywords or Identifiers
-            if (Character.isLetter(current))
-           {
-                tokens.add(readIdentifier());
+    private static void single(char c, TokenType type)
+    {
+        CLASS[c] = C_SINGLE;
+        SINGLE[c] = type;
+    }
+
+    private static int slowClass(char c)
+    {
+        if (Character.isWhitespace(c)) return C_SPACE;
+        if (Character.isLetter(c)) return C_LETTER;
+        if (Character.isDigit(c)) return C_DIGIT;
+        return C_OTHER;
+    }
+
+    private TokenType emit(TokenBuffer tokens, TokenType type, int length)
+    {
+        tokens.add(type, pos, pos + length);
+        pos += length;
+        return type;
+    }
+
+    // Skips from 'from' to the end of the line; the newline itself is left as whitespace
+    private void skipLineComment(int from)
+    {
+        int stop = find('\n', '\r', from);
+        pos = stop >= 0 ? stop : end();
+    }
+
+    // Skips a '/* ... */' comment. If it is never closed the scan stops on the last character,
+    // which is then lexed as usual.
+    private void skipBlockComment(TokenBuffer tokens)
+    {
+        int start = pos;
+        int star = find('*', '*', pos + 2);
+        while (star >= 0) {
+            if (has(star + 1) && input.charAt(star + 1) == '/') {
+                pos = star + 2; // consume '*/'
+                return;
+            }
+            star = find('*', '*', star + 1);
+        }
+        pos = Math.max(start + 2, end() - 1);
+        tokens.report(Diagnostic.Code.UNTERMINATED_COMMENT, start, 2);
+    }
+
+    // 'string' or "string"; a doubled quote inside is an escaped quote
+    private TokenType readString(TokenBuffer tokens, char quote)
+    {
+        int start = pos;
+        int close = find(quote, quote, pos + 1);
+        while (close >= 0) {
+            if (has(close + 1) && input.charAt(close + 1) == quote) {
+                close = find(quote, quote, close + 2); // escaped quote: '' or ""
                 continue;
             }
+            pos = close + 1; // closing quote
+            tokens.add(TokenType.STRING, start, pos); // value is the text without quotes
+            return TokenType.STRING;
+        }
+        throw new SqlLexicalException(SqlSyntaxException.Code.UNTERMINATED_STRING, tokens.size(), start, input, String.valueOf(quote));
+    }
 
-            // 5. Numbers
-            if (Character.isDigit(current)) 
-           {
-                tokens.add(readNumber());
+    // `identifier` (doubled backticks escape one); an unterminated one runs to the end of input
+    private TokenType readQuotedIdentifier(TokenBuffer tokens)
+    {
+        int start = pos;
+        int close = find('`', '`', pos + 1);
+        while (close >= 0) {
+            if (has(close + 1) && input.charAt(close + 1) == '`') {
+                close = find('`', '`', close + 2);
                 continue;
             }
+            pos = close + 1; // consume closing quote
+            tokens.add(TokenType.IDENTIFIER, start, pos);
+            return TokenType.IDENTIFIER;
+        }
+        // Treat quoted identifiers as IDENTIFIER tokens (keep original casing inside)
+        pos = end();
+        tokens.report(Diagnostic.Code.UNTERMINATED_IDENTIFIER, start, 1);
+        tokens.add(TokenType.IDENTIFIER, start, pos);
+        return TokenType.IDENTIFIER;
+    }
 
-            // 6. Unknown character
-            System.err.println("Unknown character: " + current);
-            pos++;
+    // Index of the first a or b at or after from, or -1. Comments and string bodies are skipped with
+    // this instead of a charAt() loop: Strings use String.indexOf (a JIT intrinsic that compares 16-32
+    // chars per instruction), mapped inputs search their decoded window directly (see Utf8Input).
+    private int find(char a, char b, int from)
+    {
+        if (string != null) {
+            int i = string.indexOf(a, from);
+            if (a == b) return i;
+            // Only '\r' is ever searched for as b. Its next position is remembered, so a script
+            // without any '\r' is searched for one once instead of once per comment.
+            if (nextCr < from) {
+                nextCr = string.indexOf(b, from);
+                if (nextCr < 0) nextCr = Integer.MAX_VALUE;
+            }
+            if (i < 0) return nextCr == Integer.MAX_VALUE ? -1 : nextCr;
+            return Math.min(i, nextCr);
+        }
+        if (incremental != null) return incremental.indexOf(a, b, from);
+        for (int i = from; i < limit; i++) {
+            char c = input.charAt(i);
+            if (c == a || c == b) return i;
         }
+        return -1;
+    }
 
-        tokens.add(new Token(TokenType.EOF, "", pos));
-        return tokens;
+    // Index just past the last char; only called once the input has been read to its end
+    private int end()
+    {
+        return incremental != null ? incremental.length() : limit;
+    }
+
+    // Incremental re-lexing for editors: applies the edit (offset, removedLength, insertedText) to
+    // the source of a fully lexed buffer and updates its tokens in place. Tokens that end before the
+    // edit are kept, scanning restarts right after the last of them (where the lexer has no pending
+    // string or comment), and it stops as soon as a new token ends where an old token ended past the
+    // edit: from that point both scans see the same text in the same state, so the old tail is reused
+    // with shifted offsets. An edit that opens a string or comment therefore rescans until it closes.
+    public static void relex(TokenBuffer tokens, int offset, int removedLength, CharSequence insertedText)
+    {
+        CharSequence old = tokens.source();
+        int delta = insertedText.length() - removedLength;
+        String text = new StringBuilder(old.length() + delta)
+                .append(old, 0, offset)
+                .append(insertedText)
+                .append(old, offset + removedLength, old.length())
+                .toString();
+
+        // first token that ends at or after the edit (ends are non-decreasing, EOF ends last)
+        int n = tokens.size();
+        int lo = 0, hi = n - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tokens.end(mid) < offset) lo = mid + 1;
+            else hi = mid;
+        }
+        int first = lo;
+
+        Lexer lexer = new Lexer(text);
+        int restart = first > 0 ? tokens.end(first - 1) : 0;
+        lexer.pos = restart;
+        TokenBuffer fresh = new TokenBuffer(16);
+        fresh.reset(text);
+
+        int editEnd = offset + insertedText.length();
+        int match = first; // walks the old tokens looking for a common end
+        int resume = n;    // old tokens from here on are reused
+        int resumeAt = Integer.MAX_VALUE; // old text offset where the reused part starts
+        while (lexer.nextToken(fresh) != TokenType.EOF) {
+            int end = fresh.end(fresh.size() - 1);
+            if (end < editEnd) continue;
+            int oldEnd = end - delta;
+            while (match < n && tokens.end(match) < oldEnd) match++;
+            if (match < n && tokens.end(match) == oldEnd && tokens.type(match) != TokenType.EOF) {
+                resume = match + 1;
+                resumeAt = oldEnd;
+                break;
+            }
+        }
+        tokens.splice(first, resume, fresh, delta, text, restart, resumeAt);
     }
 
-    private Token readIdentifier() 
+    // pos < input.length(), without forcing an incremental input to decode everything up front
+    private boolean has(int index)
+    {
+        if (index < limit) return true;
+        if (incremental == null || !incremental.has(index)) return false;
+        limit = index + 1;
+        return true;
+    }
+
+    CharSequence source()
+    {
+        return input;
+    }
+
+    private TokenType readIdentifier(TokenBuffer tokens)
     {
         int start = pos;
-        // Keep reading while letters/digits/_       here we will read the whole word and then we will check if it is a keyword or an identifier if it is a keyword we will return the token of the keyword otherwise we will return the token of the identifier
-        while (pos < input.length() && (Character.isLetterOrDigit(input.charAt(pos)) || input.charAt(pos) == '_')) 
-        {
+        // Keep reading while letters/digits/_ , then check whether the word is a keyword
+        while (has(pos)) {
+            char c = input.charAt(pos);
+            if (c < 128 ? !IDENT_PART[c] : !Character.isLetterOrDigit(c)) break;
             pos++;
-         } // this will read the whole word (e.g., "SELECT", "users", "age")
-
-        String word = input.substring(start, pos);
-
-        // Check if it is a reserved Keyword (single-word matching)
-        switch (word.toUpperCase()) {
-            case "SELECT":
-                return new Token(TokenType.SELECT, word, start);
-            case "FROM":
-                return new Token(TokenType.FROM, word, start);
-            case "WHERE":
-                return new Token(TokenType.WHERE, word, start);
-            case "DISTINCT":
-                return new Token(TokenType.DISTINCT, word, start);
-            case "AS":
-                return new Token(TokenType.AS, word, start);
-            case "ORDER":
-                return new Token(TokenType.ORDER_BY, word, start); // parser can combine ORDER + BY
-            case "GROUP":
-                return new Token(TokenType.GROUP_BY, word, start); // parser can combine GROUP + BY
-            case "HAVING":
-                return new Token(TokenType.HAVING, word, start);
-            case "LIMIT":
-                return new Token(TokenType.LIMIT, word, start);
-            case "OFFSET":
-                return new Token(TokenType.OFFSET, word, start);
-            case "FETCH":
-                return new Token(TokenType.FETCH, word, start);
-            case "TOP":
-                return new Token(TokenType.TOP, word, start);
-            case "INSERT":
-                return new Token(TokenType.INSERT, word, start);
-            case "INTO":
-                return new Token(TokenType.INTO, word, start);
-            case "VALUES":
-                return new Token(TokenType.VALUES, word, start);
-            case "UPDATE":
-                return new Token(TokenType.UPDATE, word, start);
-            case "SET":
-                return new Token(TokenType.SET, word, start);
-            case "DELETE":
-                return new Token(TokenType.DELETE, word, start);
-            case "CREATE":
-                return new Token(TokenType.CREATE, word, start);
-            case "ALTER":
-                return new Token(TokenType.ALTER, word, start);
-            case "DROP":
-                return new Token(TokenType.DROP, word, start);
-            case "TRUNCATE":
-                return new Token(TokenType.TRUNCATE, word, start);
-            case "RENAME":
-                return new Token(TokenType.RENAME, word, start);
-            case "DATABASE":
-                return new Token(TokenType.DATABASE, word, start);
-            case "TABLE":
-                return new Token(TokenType.TABLE, word, start);
-            case "VIEW":
-                return new Token(TokenType.VIEW, word, start);
-            case "INDEX":
-                return new Token(TokenType.INDEX, word, start);
-            case "SEQUENCE":
-                return new Token(TokenType.SEQUENCE, word, start);
-            case "SCHEMA":
-                return new Token(TokenType.SCHEMA, word, start);
-            case "PRIMARY":
-                return new Token(TokenType.PRIMARY_KEY, word, start);
-            case "FOREIGN":
-                return new Token(TokenType.FOREIGN_KEY, word, start);
-            case "REFERENCES":
-                return new Token(TokenType.REFERENCES, word, start);
-            case "UNIQUE":
-                return new Token(TokenType.UNIQUE, word, start);
-            case "NOT":
-                return new Token(TokenType.NOT, word, start);
-            case "CHECK":
-                return new Token(TokenType.CHECK, word, start);
-            case "DEFAULT":
-                return new Token(TokenType.DEFAULT, word, start);
-            case "JOIN":
-                return new Token(TokenType.JOIN, word, start);
-            case "INNER":
-                return new Token(TokenType.INNER_JOIN, word, start);
-            case "LEFT":
-                return new Token(TokenType.LEFT_JOIN, word, start);
-            case "RIGHT":
-                return new Token(TokenType.RIGHT_JOIN, word, start);
-            case "FULL":
-                return new Token(TokenType.FULL_JOIN, word, start);
-            case "CROSS":
-                return new Token(TokenType.CROSS_JOIN, word, start);
-            case "ON":
-                return new Token(TokenType.ON, word, start);
-            case "USING":
-                return new Token(TokenType.USING, word, start);
-            case "UNION":
-                return new Token(TokenType.UNION, word, start);
-            case "INTERSECT":
-                return new Token(TokenType.INTERSECT, word, start);
-            case "EXCEPT":
-                return new Token(TokenType.EXCEPT, word, start);
-            case "IN":
-                return new Token(TokenType.IN, word, start);
-            case "EXISTS":
-                return new Token(TokenType.EXISTS, word, start);
-            case "ANY":
-                return new Token(TokenType.ANY, word, start);
-            case "ALL":
-                return new Token(TokenType.ALL, word, start);
-            case "AND":
-                return new Token(TokenType.AND, word, start);
-            case "OR":
-                return new Token(TokenType.OR, word, start);
-            case "CASE":
-                return new Token(TokenType.CASE, word, start);
-            case "WHEN":
-                return new Token(TokenType.WHEN, word, start);
-            case "THEN":
-                return new Token(TokenType.THEN, word, start);
-            case "ELSE":
-                return new Token(TokenType.ELSE, word, start);
-            case "END":
-                return new Token(TokenType.END, word, start);
-            case "NULL":
-                return new Token(TokenType.NULL, word, start);
-            case "IS":
-                return new Token(TokenType.IS, word, start);
-            case "TRUE":
-                return new Token(TokenType.TRUE, word, start);
-            case "FALSE":
-                return new Token(TokenType.FALSE, word, start);
-            case "ASC":
-                return new Token(TokenType.ASC, word, start);
-            case "DESC":
-                return new Token(TokenType.DESC, word, start);
-            case "BETWEEN":
-                return new Token(TokenType.BETWEEN, word, start);
-            case "LIKE":
-                return new Token(TokenType.LIKE, word, start);
-            case "ESCAPE":
-                return new Token(TokenType.ESCAPE, word, start);
-            case "NULLS":
-                return new Token(TokenType.NULLS, word, start);
-            case "FIRST":
-                return new Token(TokenType.FIRST, word, start);
-            case "LAST":
-                return new Token(TokenType.LAST, word, start);
-            case "COLLATE":
-                return new Token(TokenType.COLLATE, word, start);
-            case "WITH":
-                return new Token(TokenType.WITH, word, start);
-            case "ROLLUP":
-                return new Token(TokenType.ROLLUP, word, start);
-            case "COUNT":
-                return new Token(TokenType.COUNT, word, start);
-            case "SUM":
-                return new Token(TokenType.SUM, word, start);
-            case "AVG":
-                return new Token(TokenType.AVG, word, start);
-            case "MIN":
-                return new Token(TokenType.MIN, word, start);
-            case "MAX":
-                return new Token(TokenType.MAX, word, start);
-            case "COMMIT":
-                return new Token(TokenType.COMMIT, word, start);
-            case "ROLLBACK":
-                return new Token(TokenType.ROLLBACK, word, start);
-            case "SAVEPOINT":
-                return new Token(TokenType.SAVEPOINT, word, start);
-            case "BEGIN":
-                return new Token(TokenType.BEGIN, word, start);
-            case "TRANSACTION":
-                return new Token(TokenType.TRANSACTION, word, start);
-            case "GRANT":
-                return new Token(TokenType.GRANT, word, start);
-            case "REVOKE":
-                return new Token(TokenType.REVOKE, word, start);
-            default:
-                return new Token(TokenType.IDENTIFIER, word, start);
-        }
+        } // this will read the whole word (e.g., "SELECT", "users", "age")
+
+        // Keyword recognition runs on the source characters, nothing is copied
+        TokenType type = Keywords.lookup(input, start, pos);
+        tokens.add(type, start, pos);
+        return type;
     }
 
-    private Token readNumber() 
+    private TokenType readNumber(TokenBuffer tokens)
     {
         int start = pos;
         // integer part
-        while (pos < input.length() && Character.isDigit(input.charAt(pos))) 
+        skipDigits();
+        // optional fractional part
+        if (has(pos) && input.charAt(pos) == '.')
         {
             pos++;
+            skipDigits();
         }
-        // optional fractional part
-        if (pos < input.length() && input.charAt(pos) == '.') 
-        {
+        tokens.add(TokenType.NUMBER, start, pos);
+        return TokenType.NUMBER;
+    }
+
+    private void skipDigits()
+    {
+        while (has(pos)) {
+            char c = input.charAt(pos);
+            if (c < 128 ? CLASS[c] != C_DIGIT : !Character.isDigit(c)) break;
             pos++;
-            while (pos < input.length() && Character.isDigit(input.charAt(pos))) 
-            {
-                pos++;
-            }
         }
-        return new Token(TokenType.NUMBER, input.substring(start, pos), start);
     }
-}
\ No newline at end of file
+}
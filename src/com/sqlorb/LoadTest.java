@@ -0,0 +1,133 @@
+package com.sqlorb;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Closed-loop load test for the HTTP API: clients concurrent connections each post a corpus query
+// to /validate, wait for the answer and post the next, until requests answers have come back.
+// Prints throughput, how many answers were 503, and latency percentiles.
+//
+// Usage: java com.sqlorb.LoadTest [--clients=1000] [--requests=50000] [--warmup=5000]
+//                                 [--url=http://host:port/validate | Server options]
+// Without --url it starts a Server in this JVM on a free port; the remaining options
+// (--executor, --max-concurrent, ...) go to it. Queries come from test/*.txt, as in Benchmark.
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int clients = 1000;
+        int requests = 50_000;
+        int warmup = 5_000;
+        String url = null;
+        List<String> serverArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--clients=")) clients = Integer.parseInt(arg.substring(10));
+            else if (arg.startsWith("--requests=")) requests = Integer.parseInt(arg.substring(11));
+            else if (arg.startsWith("--warmup=")) warmup = Integer.parseInt(arg.substring(9));
+            else if (arg.startsWith("--url=")) url = arg.substring(6);
+            else serverArgs.add(arg);
+        }
+
+        List<String> queries = Benchmark.loadQueries(new String[0]);
+        if (queries.isEmpty()) {
+            System.err.println("No queries found.");
+            return;
+        }
+
+        HttpServer server = null;
+        if (url == null) {
+            Server.Options options = Server.Options.parse(serverArgs.toArray(new String[0]));
+            options.port = 0;
+            server = Server.start(options);
+            url = "http://localhost:" + options.port + "/validate";
+            System.out.println("In-process server: executor " + options.executor + ", " + options.maxConcurrent
+                    + " concurrent, " + options.maxQueued + " queued");
+        }
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        URI uri = URI.create(url);
+        if (warmup > 0) run(client, uri, queries, Math.min(clients, 100), warmup);
+        Result result = run(client, uri, queries, clients, requests);
+        result.print(clients);
+
+        if (server != null) Server.stop(server, 0);
+    }
+
+    // Sends requests requests from clients concurrent loops and waits for every answer
+    private static Result run(HttpClient client, URI uri, List<String> queries, int clients, int requests)
+            throws InterruptedException {
+        Result result = new Result(requests);
+        AtomicInteger issued = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(clients);
+        long begin = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            next(client, uri, queries, issued, requests, result, done);
+        }
+        done.await();
+        result.elapsedNanos = System.nanoTime() - begin;
+        return result;
+    }
+
+    // One client's loop: post, record, post again, as long as requests are left
+    private static void next(HttpClient client, URI uri, List<String> queries, AtomicInteger issued, int requests,
+                             Result result, CountDownLatch done) {
+        int n = issued.getAndIncrement();
+        if (n >= requests) {
+            done.countDown();
+            return;
+        }
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .POST(HttpRequest.BodyPublishers.ofString(queries.get(n % queries.size())))
+                .build();
+        long start = System.nanoTime();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            result.record(n, System.nanoTime() - start, error != null ? -1 : response.statusCode());
+            next(client, uri, queries, issued, requests, result, done);
+        });
+    }
+
+    private static final class Result {
+        final long[] latencies; // nanos, by request number
+        final LongAdder answered = new LongAdder(); // 200 or 400: the query got a verdict
+        final LongAdder shed = new LongAdder();     // 503
+        final LongAdder failed = new LongAdder();   // anything else, or no answer
+        long elapsedNanos;
+
+        Result(int requests) {
+            latencies = new long[requests];
+        }
+
+        void record(int n, long nanos, int status) {
+            latencies[n] = nanos;
+            if (status == 200 || status == 400) answered.increment();
+            else if (status == 503) shed.increment();
+            else failed.increment();
+        }
+
+        void print(int clients) {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            System.out.printf("%d clients, %d requests in %.1f s: %.0f requests/s%n", clients, sorted.length,
+                    elapsedNanos / 1e9, sorted.length * 1e9 / elapsedNanos);
+            System.out.printf("answered %d, 503 %d, failed %d%n", answered.sum(), shed.sum(), failed.sum());
+            System.out.printf("latency ms: p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f%n",
+                    percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+                    percentile(sorted, 99.9), sorted[sorted.length - 1] / 1e6);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            int i = (int) Math.ceil(p / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(i, sorted.length - 1))] / 1e6;
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.sqlorb;
 
-import java.util.List;
 import java.util.Scanner;
 
 public class Main {
@@ -12,6 +11,8 @@ public class Main {
         System.out.println("SQL Syntax Checker Started...");
         System.out.println("Type a query (or 'exit' to quit):");
 
+        Parser parser = new Parser(); // reused for every query
+
         while (true) 
         {
             System.out.print("\nSQL > ");
@@ -26,21 +27,22 @@ public class Main {
             }
 
             try {
-                // 1. Lexical Analysis
-                Lexer lexer = new Lexer(input);
-                List<Token> tokens = lexer.tokenize();
+                // 1. Lexical + Syntax Analysis (the parser pulls tokens from the lexer as it needs them)
+                parser.reset(input);
 
-                // If the token stream contains only EOF (input was empty or only comments/whitespace), skip parsing
-                if (tokens.size() == 1 && tokens.get(0).type == TokenType.EOF) {
+                // If the input holds no tokens (only comments/whitespace), skip parsing
+                if (parser.isEmpty()) {
                     // nothing to parse — treat as no-op
                     continue;
                 }
 
                 // 2. Syntax Analysis
-                Parser parser = new Parser(tokens);
                 parser.parseQuery();
 
                 System.out.println(" Valid Syntax!");
+                for (Diagnostic d : parser.diagnostics()) {
+                    System.err.println("Warning: " + d.message(input));
+                }
 
             } catch (Exception e) {
                 System.err.println("Error: " + e.getMessage());
@@ -0,0 +1,137 @@
+package com.sqlorb;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sqlorb.SqlSyntaxException.Code;
+
+// What the server has been doing, for Prometheus to scrape from /metrics. Handlers record as they
+// go (counters and Histograms on LongAdders, so recording is a few uncontended CAS); scrape()
+// renders everything in the text exposition format, together with the cache, executor and
+// access log counters it reads on the spot.
+//
+// Phases of a /validate request: lex is ValidationCache.lex() (the whole query lexed and
+// fingerprinted; a query that does not lex is validated uncached within it), parse is
+// ValidationCache.check() (a cache lookup, or a parse on a miss), total is the whole exchange.
+// Bodies too large for the cache (or of unknown length) are parsed as they are read, lexing as
+// the parser pulls tokens, so the two cannot be told apart: that time goes to the stream series
+// instead of lex and parse. Body bytes are those read, which for a rejected body may be few.
+//
+// Requests are counted by requestCounter(), a filter in front of every context, so preflights,
+// 405s and the 503s of load shedding are counted along with the answers handlers give.
+final class Metrics {
+    final Histogram lexTime = new Histogram(8, 36);    // ns: 256 ns .. 68 s
+    final Histogram parseTime = new Histogram(8, 36);
+    final Histogram streamTime = new Histogram(8, 36); // lex and parse together, for streamed bodies
+    final Histogram totalTime = new Histogram(10, 36); // ns: 1 us .. 68 s
+    final Histogram tokens = new Histogram(3, 30);     // per request
+    final Histogram bodyBytes = new Histogram(4, 32);
+
+    private final ConcurrentHashMap<String, LongAdder> requests = new ConcurrentHashMap<>(); // "path status"
+    private final LongAdder[] errors = new LongAdder[Code.values().length];
+    private final String[] categories = new String[errors.length];
+
+    private final ValidationCache cache;
+    private final RequestExecutor executor;
+    private final AccessLog log;
+
+    Metrics(ValidationCache cache, RequestExecutor executor, AccessLog log) {
+        this.cache = cache;
+        this.executor = executor;
+        this.log = log;
+        for (int i = 0; i < errors.length; i++) errors[i] = new LongAdder();
+    }
+
+    private void request(String path, int status) {
+        requests.computeIfAbsent(path + " " + status, key -> new LongAdder()).increment();
+    }
+
+    // Counts every exchange of the context by its path and the status it was answered with
+    Filter requestCounter() {
+        return new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                try {
+                    chain.doFilter(exchange);
+                } finally {
+                    int status = exchange.getResponseCode();
+                    if (status > 0) request(exchange.getHttpContext().getPath(), status); // -1: never answered
+                }
+            }
+
+            @Override
+            public String description() {
+                return "Counts requests by path and status for /metrics";
+            }
+        };
+    }
+
+    // A rejected query, counted by code under lexical, syntax or semantic
+    void error(SqlSyntaxException e) {
+        int i = e.code.ordinal();
+        if (categories[i] == null) { // the same code always comes from the same exception class
+            categories[i] = e instanceof SqlLexicalException ? "lexical"
+                    : e instanceof SqlSemanticException ? "semantic" : "syntax";
+        }
+        errors[i].increment();
+    }
+
+    // The text exposition format (version 0.0.4)
+    String scrape() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+
+        header(out, "sqlorb_requests_total", "counter", "HTTP requests answered, by path and status.");
+        Map<String, LongAdder> sorted = new TreeMap<>(requests);
+        for (Map.Entry<String, LongAdder> e : sorted.entrySet()) {
+            int space = e.getKey().lastIndexOf(' ');
+            out.append("sqlorb_requests_total{path=\"").append(e.getKey(), 0, space)
+               .append("\",status=\"").append(e.getKey(), space + 1, e.getKey().length())
+               .append("\"} ").append(e.getValue().sum()).append('\n');
+        }
+
+        header(out, "sqlorb_sql_errors_total", "counter", "Queries /validate rejected, by category and code.");
+        for (int i = 0; i < errors.length; i++) {
+            long count = errors[i].sum();
+            if (count == 0) continue;
+            out.append("sqlorb_sql_errors_total{category=\"").append(categories[i])
+               .append("\",code=\"").append(Code.values()[i]).append("\"} ").append(count).append('\n');
+        }
+
+        histogram(out, lexTime, "sqlorb_lex_duration_seconds", "Time to lex and fingerprint a /validate query.", 1e9);
+        histogram(out, parseTime, "sqlorb_parse_duration_seconds", "Time to look up or parse a /validate query after lexing.", 1e9);
+        histogram(out, streamTime, "sqlorb_stream_duration_seconds", "Time to lex and parse a /validate body parsed as it was read (no Content-Length, or over 64 KB).", 1e9);
+        histogram(out, totalTime, "sqlorb_request_duration_seconds", "Time to answer a /validate request.", 1e9);
+        histogram(out, tokens, "sqlorb_request_tokens", "Tokens lexed per /validate request.", 1);
+        histogram(out, bodyBytes, "sqlorb_request_body_bytes", "Request body size of /validate requests.", 1);
+
+        value(out, "sqlorb_cache_hits_total", "counter", "Verdicts answered from the validation cache.", cache.hits());
+        value(out, "sqlorb_cache_misses_total", "counter", "Queries the validation cache had to parse.", cache.misses());
+        value(out, "sqlorb_cache_evictions_total", "counter", "Verdicts evicted from the validation cache.", cache.evictions());
+        value(out, "sqlorb_cache_entries", "gauge", "Verdicts in the validation cache.", cache.size());
+        value(out, "sqlorb_in_flight_requests", "gauge", "Requests running or queued.", executor.inFlight());
+        value(out, "sqlorb_shed_requests_total", "counter", "Requests answered 503 because the server was saturated.", executor.shed());
+        value(out, "sqlorb_access_log_dropped_total", "counter", "Access log records dropped because the ring was full.", log.dropped());
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void histogram(StringBuilder out, Histogram histogram, String name, String help, double unit) {
+        header(out, name, "histogram", help);
+        histogram.appendTo(out, name, "", unit);
+    }
+
+    private static void value(StringBuilder out, String name, String type, String help, long value) {
+        header(out, name, type, help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,188 @@
+package com.sqlorb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+// Validates one large script on several cores. The text is cut into chunks of about chunkSize
+// chars, each ending right after a ';' (preferably one that ends a line). Each chunk is lexed and
+// parsed by its own ScriptParser on a ForkJoinPool, and the statements come back in script order,
+// numbered as ScriptParser would number them.
+//
+// The cuts are a guess: a ';' inside a string or comment is not the end of a statement. Every chunk
+// therefore parses on past its end until the statement in progress is complete, and remembers where
+// the next statement starts. When merging, a chunk whose first statement does not start exactly
+// there was lexed from the wrong state and is parsed again from that point. Once both agree on
+// where a statement starts they lex identically from there on, so the result is the same as one
+// ScriptParser over the whole text. That includes lexer warnings: the ones between two statements
+// are taken from the chunk that parsed the earlier statement (which lexed that gap in the right
+// state) and handed to the next statement emitted, even when the chunks in between have none.
+//
+// The script must be safe to read from several threads at once (a String, or a CharBuffer nobody
+// writes to). Utf8Input decodes sequentially and is not.
+public final class ParallelScriptParser {
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    public ParallelScriptParser() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public ParallelScriptParser(ForkJoinPool pool, int chunkSize) {
+        if (chunkSize < 1) throw new IllegalArgumentException("chunkSize must be >= 1: " + chunkSize);
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    // One statement's outcome; offsets as in ScriptParser
+    public static final class Statement {
+        int index;
+        private final int start, end;
+        private final SqlSyntaxException error;
+        private List<Diagnostic> diagnostics;
+
+        Statement(int start, int end, SqlSyntaxException error, List<Diagnostic> diagnostics) {
+            this.start = start;
+            this.end = end;
+            this.error = error;
+            this.diagnostics = diagnostics;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        public int start() {
+            return start;
+        }
+
+        public int end() {
+            return end;
+        }
+
+        public boolean isValid() {
+            return error == null;
+        }
+
+        public SqlSyntaxException error() {
+            return error;
+        }
+
+        public List<Diagnostic> diagnostics() {
+            return diagnostics;
+        }
+    }
+
+    public List<Statement> validate(CharSequence script) {
+        List<Statement> statements = new ArrayList<>();
+        validate(script, statements::add);
+        return statements;
+    }
+
+    // Hands every statement to results, in script order, on the calling thread. Only a few chunks
+    // per worker are in flight at a time, so memory does not grow with the script.
+    public void validate(CharSequence script, Consumer<Statement> results) {
+        int length = script.length();
+        int window = pool.getParallelism() * 4;
+        ArrayDeque<Chunk> inFlight = new ArrayDeque<>();
+        int from = 0;
+        int resume = 0; // where the next statement starts, per the chunks merged so far
+        int index = 0;
+        List<Diagnostic> carried = Collections.emptyList(); // warnings before resume that no statement has taken yet
+        while (resume >= 0 && (from < length || !inFlight.isEmpty())) {
+            while (from < length && inFlight.size() < window) {
+                int to = cut(script, from + chunkSize, length);
+                Chunk chunk = new Chunk(script, from, to);
+                pool.execute(chunk);
+                inFlight.add(chunk);
+                from = to;
+            }
+            Chunk chunk = inFlight.poll();
+            chunk.join();
+            if (chunk.first() != resume) { // the cut before this chunk was inside a string or comment
+                chunk = new Chunk(script, resume, chunk.to);
+                chunk.compute();
+            }
+            // Warnings before resume may come from text the chunk lexed in the wrong state, so the
+            // ones the merged chunks saw are used instead; a chunk that starts at resume saw them right
+            if (!chunk.statements.isEmpty()) {
+                Statement first = chunk.statements.get(0);
+                first.diagnostics = concat(carried, from(first.diagnostics, resume));
+                carried = chunk.trailing;
+            } else if (chunk.from == resume) {
+                carried = concat(carried, chunk.trailing);
+            }
+            for (Statement statement : chunk.statements) {
+                statement.index = ++index;
+                results.accept(statement);
+            }
+            resume = chunk.resume;
+        }
+        for (Chunk chunk : inFlight) chunk.cancel(false); // the script ended (e.g. unterminated string)
+    }
+
+    private static List<Diagnostic> from(List<Diagnostic> diagnostics, int start) {
+        int n = 0;
+        while (n < diagnostics.size() && diagnostics.get(n).position < start) n++;
+        return n == 0 ? diagnostics : diagnostics.subList(n, diagnostics.size());
+    }
+
+    private static List<Diagnostic> concat(List<Diagnostic> a, List<Diagnostic> b) {
+        if (a.isEmpty()) return b;
+        if (b.isEmpty()) return a;
+        List<Diagnostic> all = new ArrayList<>(a);
+        all.addAll(b);
+        return Collections.unmodifiableList(all);
+    }
+
+    // End of a chunk at or after at: just past the first ';' that ends a line, or past the first ';'
+    // at all when no such one comes soon; the end of the script if there is no ';' left
+    private int cut(CharSequence script, int at, int length) {
+        int any = -1;
+        for (int i = Math.max(at, 0); i < length; i++) {
+            if (script.charAt(i) != ';') continue;
+            if (i + 1 == length || script.charAt(i + 1) == '\n' || script.charAt(i + 1) == '\r') return i + 1;
+            if (any < 0) any = i + 1;
+            if (i - at > chunkSize / 2) break;
+        }
+        return any >= 0 ? any : length;
+    }
+
+    // The statements starting in [from, to); the last may run past to
+    private static final class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final CharSequence script;
+        final int from, to;
+        final List<Statement> statements = new ArrayList<>();
+        int resume; // start of the next statement after this chunk's, -1 if the script ended
+        List<Diagnostic> trailing; // warnings after the last statement, which belong to the one at resume
+
+        Chunk(CharSequence script, int from, int to) {
+            this.script = script;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            ScriptParser parser = new ScriptParser(ParserPool.acquire(script, from), to);
+            while (parser.next()) {
+                statements.add(new Statement(parser.start(), parser.end(), parser.error(), parser.diagnostics()));
+            }
+            resume = parser.resumeAt();
+            trailing = parser.trailingDiagnostics();
+        }
+
+        // Where this chunk believes its first statement starts
+        int first() {
+            return statements.isEmpty() ? resume : statements.get(0).start;
+        }
+    }
+}
@@ -1,52 +1,227 @@
 package com.sqlorb;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Set;
+
+import com.sqlorb.SqlSyntaxException.Code;
 
 public class Parser {
-    private final List<Token> tokens;
+    private TokenBuffer tokens;
+    private Lexer lexer; // null when the buffer already holds every token
+    private boolean lexerDone = false;
     private int current = 0;
 
-    // Data captured during parsing for GROUP BY / HAVING validation
+    // Identifiers are compared by symbol id; ids of tokens already looked up are cached (id + 1)
+    private final SymbolTable symbols;
+    private int[] tokenSymbols = new int[0];
+    private int cachedSymbols; // tokenSymbols[0, cachedSymbols) may be set
+
+    // Table ids are renumbered per query in order of first use (reserved words keep theirs), as a
+    // fresh table would number them. A reused or shared table has seen other queries, and the
+    // column a HAVING error names (the lowest id) must not depend on that.
+    private int[] queryIds = new int[0];  // by table id: id in this query, if stamps matches epoch
+    private int[] stamps = new int[0];
+    private int[] tableIds = new int[16]; // by query id: table id
+    private int nextQueryId = SymbolTable.FIRST_NAME;
+    private int epoch = 1;
+
+    // Data captured during parsing for GROUP BY / HAVING validation. The item objects (and their
+    // BitSets) are recycled from query to query: the lists hold the current query's items, the
+    // pools every item made so far.
     private List<SelectItemInfo> selectItems = new ArrayList<>();
     private List<GroupByItem> groupByItems = new ArrayList<>();
+    private final List<SelectItemInfo> selectItemPool = new ArrayList<>();
+    private final List<GroupByItem> groupByItemPool = new ArrayList<>();
+    private final HavingInfo having = new HavingInfo();
+    private final ExprInfo operand = new ExprInfo(); // the HAVING operand being parsed
+    private final BitSet ordinals = new BitSet();   // GROUP BY ordinals, for Rule 1
     private boolean hasGroupBy = false;
 
+    // Nesting of parentheses, function calls and CASE; deeper input is rejected with TOO_DEEP
+    public static final int DEFAULT_MAX_DEPTH = 1000;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    private int depth;
+    // IN list sizes seen by the last parseQuery(), and the limit on them
+    private int inLists, inListElements, largestInList;
+    private int maxInListElements = Integer.MAX_VALUE;
+
+    // Literal tokens whose text, not just their type, decided the last verdict: GROUP BY / ORDER BY
+    // ordinals and the literals Rule 1 compares. ValidationCache checks them before reusing a result.
+    private int[] literalsRead = new int[8];
+    private int literalsReadCount;
+
+    // Function calls and CASE expressions parseExpression() is inside of; frames are reused
+    private final List<Frame> frames = new ArrayList<>();
+    private int frameCount;
+
+    // While a SELECT or GROUP BY expression is parsed, advance() folds each consumed token into hash
+    private boolean hashing = false;
+    private long hash;
+    // GROUP BY expressions by hash: open addressing, slots hold index into groupByItems + 1
+    private int[] groupBySlots = new int[16];
+
+    // An idle parser with its own lexer, token buffer and symbol table, to be pointed at queries
+    // with reset(CharSequence). See ParserPool for one per thread.
+    public Parser() {
+        this(new Lexer(""), new TokenBuffer(), new SymbolTable());
+    }
+
     public Parser(List<Token> tokens) {
+        this(TokenBuffer.of(tokens));
+    }
+
+    public Parser(TokenBuffer tokens) {
+        this.tokens = tokens;
+        this.lexer = null;
+        this.symbols = new SymbolTable();
+    }
+
+    // Streaming mode: tokens are pulled from the lexer only when the parser reaches them, so input
+    // is rejected after scanning up to the first error instead of the whole text
+    public Parser(Lexer lexer) {
+        this(lexer, new TokenBuffer());
+    }
+
+    public Parser(Lexer lexer, TokenBuffer tokens) {
+        this(lexer, tokens, new SymbolTable());
+    }
+
+    // Shares a symbol table (see SymbolTable.concurrent()) instead of making one per parser
+    public Parser(Lexer lexer, TokenBuffer tokens, SymbolTable symbols) {
         this.tokens = tokens;
+        this.lexer = lexer;
+        this.symbols = symbols;
+        tokens.reset(lexer.source());
+    }
+
+    // Points the parser at a new query, lexed on demand into the parser's token buffer. Buffers,
+    // the symbol table and the GROUP BY / HAVING scratch space are kept, so once warmed up a parser
+    // validates a typical query without allocating.
+    public Parser reset(CharSequence sql) {
+        return reset(sql, 0);
+    }
+
+    // Same, but the query starts at char from of sql (see ParallelScriptParser)
+    public Parser reset(CharSequence sql, int from) {
+        lexer = (lexer != null ? lexer : new Lexer(sql)).reset(sql, from);
+        tokens.reset(sql);
+        return restart();
+    }
+
+    // Points the parser at tokens lexed elsewhere; later reset(CharSequence) calls lex into this buffer
+    public Parser reset(TokenBuffer tokens) {
+        this.tokens = tokens;
+        this.lexer = null;
+        return restart();
+    }
+
+    private Parser restart() {
+        lexerDone = false;
+        return startStatement();
+    }
+
+    private Parser startStatement() {
+        current = 0;
+        Arrays.fill(tokenSymbols, 0, cachedSymbols, 0);
+        cachedSymbols = 0;
+        nextQueryId = SymbolTable.FIRST_NAME;
+        if (++epoch == 0) { // wrapped: forget every stamp
+            Arrays.fill(stamps, 0);
+            epoch = 1;
+        }
+        return this;
+    }
+
+    // Limit for nested parentheses, function calls and CASE expressions (their nesting uses heap,
+    // not Java stack, so this only bounds the work and memory one query can ask for)
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 1) throw new IllegalArgumentException("maxDepth must be >= 1: " + maxDepth);
+        this.maxDepth = maxDepth;
+    }
+
+    // Rejects IN lists with more elements (IN_LIST_TOO_LONG); unlimited by default
+    public void setMaxInListElements(int maxElements) {
+        if (maxElements < 1) throw new IllegalArgumentException("maxElements must be >= 1: " + maxElements);
+        this.maxInListElements = maxElements;
+    }
+
+    // IN lists in the last parsed query, their elements in total, and the elements of the longest
+    public int inListCount() {
+        return inLists;
+    }
+
+    public int inListElements() {
+        return inListElements;
+    }
+
+    public int largestInList() {
+        return largestInList;
+    }
+
+    // Memory a pooled parser holds on to between queries (see ParserPool)
+    int retainedTokens() {
+        return Math.max(tokens.capacity(), tokenSymbols.length);
+    }
+
+    int retainedSymbols() {
+        return symbols.size();
+    }
+
+    // True if the input holds no tokens at all (empty, whitespace or comments only)
+    public boolean isEmpty() {
+        fill(0);
+        return tokens.size() == 0 || tokens.type(0) == TokenType.EOF;
+    }
+
+    // Lexer warnings for the part of the input read so far (all of it once parseQuery() returned)
+    public List<Diagnostic> diagnostics() {
+        return tokens.diagnostics();
     }
 
     // ---------------------------------------------------------
     // RULE 1: query -> SELECT columns FROM table [WHERE condition] [GROUP BY] [HAVING] [ORDER BY]
     // ---------------------------------------------------------
     public void parseQuery() {
-        if (tokens.isEmpty()) return;
+        fill(0);
+        if (tokens.size() == 0) return;
+        if (parseStatement() && peekType() != TokenType.EOF) {
+            throw error(Code.TRAILING_TEXT);
+        }
+    }
 
+    // One statement from the current token on, through its ';' if it has one (returns true then).
+    // Anything but ';' or EOF after the statement is TRAILING_TEXT.
+    boolean parseStatement() {
         selectItems.clear();
         groupByItems.clear();
         hasGroupBy = false;
+        hashing = false;
+        depth = 0;
+        frameCount = 0;
+        inLists = inListElements = largestInList = 0;
+        literalsReadCount = 0;
 
         match(TokenType.SELECT);
-        if (peek().type == TokenType.DISTINCT) advance(); // Optional DISTINCT
+        if (peekType() == TokenType.DISTINCT) advance(); // Optional DISTINCT
         parseColumns();
         match(TokenType.FROM);
         match(TokenType.IDENTIFIER); // Table name
 
         // WHERE clause is optional
-        if (peek().type == TokenType.WHERE) {
+        if (peekType() == TokenType.WHERE) {
             match(TokenType.WHERE);
             parseCondition();
         }
 
         // Optional GROUP BY ... HAVING
-        if (peek().type == TokenType.GROUP_BY) {
+        if (peekType() == TokenType.GROUP_BY) {
             hasGroupBy = true;
             parseGroupBy();
             validateGroupByRule1(); // Rule 1: All non-aggregated SELECT columns must be in GROUP BY
 
-            if (peek().type == TokenType.HAVING) {
+            if (peekType() == TokenType.HAVING) {
                 match(TokenType.HAVING);
                 HavingInfo havingInfo = parseHavingClause();
                 validateHavingRule3(havingInfo); // Rule 3: Non-GROUP BY columns in HAVING must be aggregated
@@ -54,27 +229,81 @@ public class Parser {
         }
 
         // Optional ORDER BY
-        if (peek().type == TokenType.ORDER_BY) {
+        if (peekType() == TokenType.ORDER_BY) {
             parseOrderBy();
         }
 
         // Optional LIMIT
-        if (peek().type == TokenType.LIMIT) {
+        if (peekType() == TokenType.LIMIT) {
             match(TokenType.LIMIT);
-            if (peek().type != TokenType.NUMBER) {
-                throw new RuntimeException("Syntax Error: LIMIT requires a numeric value");
+            if (peekType() != TokenType.NUMBER) {
+                throw error(Code.LIMIT_NOT_NUMERIC);
             }
             advance();
         }
 
         // Optional semicolon
-        if (peek().type == TokenType.SEMICOLON) {
+        if (peekType() == TokenType.SEMICOLON) {
             match(TokenType.SEMICOLON);
+            return true;
         }
 
-        if (peek().type != TokenType.EOF) {
-            throw new RuntimeException("Error at position " + peek().position + ": Unexpected text '" + peek().value + "' after the query ended.");
+        if (peekType() != TokenType.EOF) {
+            throw error(Code.TRAILING_TEXT);
         }
+        return false;
+    }
+
+    // -------------------------------------------------------------------------
+    // Script mode (see ScriptParser): statements are parsed one after another from the same
+    // lexer, and the tokens of each are dropped once it is done
+    // -------------------------------------------------------------------------
+    CharSequence source() {
+        return tokens.source();
+    }
+
+    int currentToken() {
+        return current;
+    }
+
+    // Type of token i, lexing up to it if needed
+    TokenType tokenType(int i) {
+        fill(i);
+        return tokens.type(i);
+    }
+
+    int tokenStart(int i) {
+        return tokens.start(i);
+    }
+
+    int tokenEnd(int i) {
+        return tokens.end(i);
+    }
+
+    // Forgets tokens [0, first) and starts the next statement at what was token first
+    void nextStatement(int first) {
+        tokens.discard(first);
+        startStatement();
+    }
+
+    // -------------------------------------------------------------------------
+    // ValidationCache support
+    // -------------------------------------------------------------------------
+    TokenBuffer tokens() {
+        return tokens;
+    }
+
+    // Lexes the rest of the input, so the whole query's fingerprint is known before parsing
+    void lexAll() {
+        fill(Integer.MAX_VALUE);
+    }
+
+    int literalsRead() {
+        return literalsReadCount;
+    }
+
+    int literalRead(int k) {
+        return literalsRead[k];
     }
 
     // -------------------------------------------------------------------------
@@ -82,24 +311,24 @@ public class Parser {
     // -------------------------------------------------------------------------
     private void parseGroupBy() {
         match(TokenType.GROUP_BY);
-        if (peek().type == TokenType.IDENTIFIER && peek().value.equalsIgnoreCase("BY")) {
+        if (peekType() == TokenType.IDENTIFIER && tokens.is(current, "BY")) {
             advance();
         }
         // Must have at least one item (column, expression, ordinal, or function like LEFT/RIGHT)
-        if (peek().type != TokenType.IDENTIFIER && peek().type != TokenType.NUMBER && peek().type != TokenType.LPAREN
-                && peek().type != TokenType.LEFT_JOIN && peek().type != TokenType.RIGHT_JOIN && peek().type != TokenType.CASE) {
-            throw new RuntimeException("Syntax Error: Expected column, expression, or ordinal after GROUP BY");
+        if (peekType() != TokenType.IDENTIFIER && peekType() != TokenType.NUMBER && peekType() != TokenType.LPAREN
+                && peekType() != TokenType.LEFT_JOIN && peekType() != TokenType.RIGHT_JOIN && peekType() != TokenType.CASE) {
+            throw error(Code.GROUP_BY_EMPTY);
         }
         parseGroupByItem();
-        while (peek().type == TokenType.COMMA) {
+        while (peekType() == TokenType.COMMA) {
             match(TokenType.COMMA);
             parseGroupByItem();
         }
         // Optional WITH ROLLUP
-        if (peek().type == TokenType.WITH) {
+        if (peekType() == TokenType.WITH) {
             advance();
-            if (peek().type != TokenType.ROLLUP && (peek().type != TokenType.IDENTIFIER || !peek().value.equalsIgnoreCase("ROLLUP"))) {
-                throw new RuntimeException("Syntax Error: WITH must be followed by ROLLUP");
+            if (peekType() != TokenType.ROLLUP && (peekType() != TokenType.IDENTIFIER || !tokens.is(current, "ROLLUP"))) {
+                throw error(Code.WITH_WITHOUT_ROLLUP);
             }
             advance();
         }
@@ -107,40 +336,59 @@ public class Parser {
 
     private void parseGroupByItem() {
         // Rule 7: GROUP BY ordinal (1, 2, 3...)
-        if (peek().type == TokenType.NUMBER) {
-            int ord = Integer.parseInt(peek().value);
+        if (peekType() == TokenType.NUMBER) {
+            int ord = ordinal(current);
             if (ord < 1) {
-                throw new RuntimeException("Syntax Error: GROUP BY ordinal must be >= 1");
+                throw error(Code.GROUP_BY_ORDINAL);
             }
             advance();
-            groupByItems.add(new GroupByItem(ord, null));
+            nextGroupByItem().ordinal = ord;
             return;
         }
         // Rule 3: Expression (column, function, arithmetic)
-        int start = current;
-        parseExpression();
-        int end = current;
-        groupByItems.add(new GroupByItem(-1, buildSignature(start, end)));
+        GroupByItem item = nextGroupByItem();
+        item.start = current;
+        startHash();
+        parseExpression(item.expr);
+        item.hash = endHash();
+        item.end = current;
+    }
+
+    private GroupByItem nextGroupByItem() {
+        int n = groupByItems.size();
+        if (n == groupByItemPool.size()) groupByItemPool.add(new GroupByItem());
+        GroupByItem item = groupByItemPool.get(n);
+        item.clear();
+        groupByItems.add(item);
+        return item;
     }
 
     // Rule 1: All selected non-aggregated columns must appear in GROUP BY
+    // Select items are looked up in a hash table of the GROUP BY expressions; a hash match is
+    // confirmed by comparing the normalized text, so a collision cannot hide a violation
     private void validateGroupByRule1() {
         if (selectItems.isEmpty()) return; // SELECT * case
+        for (SelectItemInfo item : selectItems) {
+            readLiterals(item.start, item.end);
+            if (item.aliasToken >= 0) readLiterals(item.aliasToken, item.aliasToken + 1);
+        }
+        for (GroupByItem gb : groupByItems) {
+            if (gb.ordinal < 0) readLiterals(gb.start, gb.end);
+        }
+        indexGroupBy();
         for (int i = 0; i < selectItems.size(); i++) {
             SelectItemInfo item = selectItems.get(i);
             if (item.isAggregate) continue;
-            boolean covered = false;
-            for (GroupByItem gb : groupByItems) {
-                if (gb.ordinal >= 1) {
-                    if (gb.ordinal == i + 1) covered = true;
-                } else if (normalizeSignature(item.signature).equals(normalizeSignature(gb.expression))) {
-                    covered = true;
-                } else if (item.alias != null && normalizeSignature(gb.expression).equals(item.alias.toLowerCase())) {
-                    covered = true; // GROUP BY alias (e.g. GROUP BY cat when SELECT x AS cat)
-                }
+            boolean covered = ordinals.get(i + 1) || groupedBy(item.hash, item.start, item.end);
+            if (!covered && item.aliasToken >= 0) {
+                // GROUP BY alias (e.g. GROUP BY cat when SELECT x AS cat)
+                String text = tokens.text(item.aliasToken);
+                String alias = normalizeSignature(text);
+                covered = alias.length() == text.length() // an alias with spaces never matches
+                        && groupedBy(TokenBuffer.hash(alias, 0, alias.length(), TokenBuffer.HASH_SEED), alias);
             }
             if (!covered) {
-                throw new RuntimeException("GROUP BY rule violation: Column '" + item.signature + "' must appear in GROUP BY or be used in an aggregate function.");
+                throw new SqlSemanticException(Code.GROUP_BY_RULE, item.signature());
             }
         }
     }
@@ -148,35 +396,83 @@ public class Parser {
     // Rule 3 (HAVING): Columns not in GROUP BY cannot appear unaggregated in HAVING
     private void validateHavingRule3(HavingInfo info) {
         if (!hasGroupBy || info.columnRefs.isEmpty()) return;
-        for (String col : info.columnRefs) {
-            if (info.aggregateColumnRefs.contains(col)) continue;
+        for (int col = info.columnRefs.nextSetBit(0); col >= 0; col = info.columnRefs.nextSetBit(col + 1)) {
             boolean inGroupBy = false;
             for (GroupByItem gb : groupByItems) {
                 if (gb.ordinal >= 1) {
                     if (gb.ordinal <= selectItems.size()) {
                         SelectItemInfo si = selectItems.get(gb.ordinal - 1);
-                        if (si.columnRefs.contains(col.toLowerCase())) inGroupBy = true;
+                        if (si.expr.names.get(col)) inGroupBy = true;
                     }
-                } else if (gb.expression != null && gb.expression.toLowerCase().contains(col.toLowerCase())) {
+                } else if (gb.expr.identifiers.get(col)) {
                     inGroupBy = true;
                 }
             }
             if (!inGroupBy) {
-                throw new RuntimeException("HAVING rule violation: Column '" + col + "' must appear in GROUP BY or be used in an aggregate function.");
+                throw new SqlSemanticException(Code.HAVING_RULE, name(col));
             }
         }
     }
 
-    private String normalizeSignature(String s) {
-        if (s == null) return "";
-        return s.replaceAll("\\s+", "").toLowerCase();
+    // Fills groupBySlots with the GROUP BY expressions and ordinals with the ordinals that were used
+    private void indexGroupBy() {
+        ordinals.clear();
+        int capacity = 16;
+        while (capacity < groupByItems.size() * 2) capacity <<= 1;
+        if (groupBySlots.length < capacity) groupBySlots = new int[capacity];
+        else Arrays.fill(groupBySlots, 0);
+        int mask = groupBySlots.length - 1;
+        for (int g = 0; g < groupByItems.size(); g++) {
+            GroupByItem gb = groupByItems.get(g);
+            if (gb.ordinal >= 1) {
+                ordinals.set(gb.ordinal);
+                continue;
+            }
+            int slot = slot(gb.hash, mask);
+            while (groupBySlots[slot] != 0) slot = (slot + 1) & mask;
+            groupBySlots[slot] = g + 1;
+        }
+    }
+
+    // True if a GROUP BY expression has the hash and the normalized text of tokens [start, end)
+    private boolean groupedBy(long hash, int start, int end) {
+        int mask = groupBySlots.length - 1;
+        for (int slot = slot(hash, mask); groupBySlots[slot] != 0; slot = (slot + 1) & mask) {
+            GroupByItem gb = groupByItems.get(groupBySlots[slot] - 1);
+            if (gb.hash == hash && tokens.sameText(start, end, gb.start, gb.end)) return true;
+        }
+        return false;
+    }
+
+    // Same, for a normalized name (a select item's alias)
+    private boolean groupedBy(long hash, String normalized) {
+        int mask = groupBySlots.length - 1;
+        for (int slot = slot(hash, mask); groupBySlots[slot] != 0; slot = (slot + 1) & mask) {
+            GroupByItem gb = groupByItems.get(groupBySlots[slot] - 1);
+            if (gb.hash == hash && normalized.equals(gb.normalized())) return true;
+        }
+        return false;
+    }
+
+    private static int slot(long hash, int mask) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    // Expression text as GROUP BY compares it: lowercased, whitespace removed (what TokenBuffer.hash() folds)
+    private static String normalizeSignature(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!TokenBuffer.isSpace(c)) sb.append(Character.toLowerCase(c));
+        }
+        return sb.toString();
     }
 
     private String buildSignature(int start, int end) {
         StringBuilder sb = new StringBuilder();
         for (int i = start; i < end && i < tokens.size(); i++) {
             if (i > start) sb.append(" ");
-            sb.append(tokens.get(i).value);
+            sb.append(tokens.text(i));
         }
         return sb.toString();
     }
@@ -184,11 +480,11 @@ public class Parser {
     // Parse ORDER BY: col [ASC|DESC] [NULLS FIRST|LAST] | ordinal | expression [, ...]
     private void parseOrderBy() {
         match(TokenType.ORDER_BY);
-        if (peek().type == TokenType.IDENTIFIER && peek().value.equalsIgnoreCase("BY")) {
+        if (peekType() == TokenType.IDENTIFIER && tokens.is(current, "BY")) {
             advance();
         }
         parseOrderByItem();
-        while (peek().type == TokenType.COMMA) {
+        while (peekType() == TokenType.COMMA) {
             match(TokenType.COMMA);
             parseOrderByItem();
         }
@@ -196,27 +492,27 @@ public class Parser {
 
     private void parseOrderByItem() {
         // ORDER BY ordinal (1, 2, 3...)
-        if (peek().type == TokenType.NUMBER) {
-            int ord = Integer.parseInt(peek().value);
-            if (ord < 1) throw new RuntimeException("Syntax Error: ORDER BY ordinal must be >= 1");
+        if (peekType() == TokenType.NUMBER) {
+            int ord = ordinal(current);
+            if (ord < 1) throw error(Code.ORDER_BY_ORDINAL);
             advance();
         } else {
             // ORDER BY expression (column, function, arithmetic, CASE, etc.)
             parseExpression();
         }
         // Optional ASC | DESC
-        if (peek().type == TokenType.ASC || peek().type == TokenType.DESC) advance();
+        if (peekType() == TokenType.ASC || peekType() == TokenType.DESC) advance();
         // Optional NULLS FIRST | NULLS LAST
-        if (peek().type == TokenType.NULLS) {
+        if (peekType() == TokenType.NULLS) {
             advance();
-            if (peek().type == TokenType.FIRST || peek().type == TokenType.LAST) advance();
-            else throw new RuntimeException("Syntax Error: NULLS must be followed by FIRST or LAST");
+            if (peekType() == TokenType.FIRST || peekType() == TokenType.LAST) advance();
+            else throw error(Code.NULLS_WITHOUT_FIRST_LAST);
         }
         // Optional COLLATE "name"
-        if (peek().type == TokenType.COLLATE) {
+        if (peekType() == TokenType.COLLATE) {
             advance();
-            if (peek().type != TokenType.STRING && peek().type != TokenType.IDENTIFIER) {
-                throw new RuntimeException("Syntax Error: COLLATE requires a collation name");
+            if (peekType() != TokenType.STRING && peekType() != TokenType.IDENTIFIER) {
+                throw error(Code.COLLATE_WITHOUT_NAME);
             }
             advance();
         }
@@ -226,299 +522,162 @@ public class Parser {
     // SELECT columns
     // -------------------------------------------------------------------------
     private void parseColumns() {
-        if (peek().type == TokenType.STAR) {
+        if (peekType() == TokenType.STAR) {
             match(TokenType.STAR);
             return;
         }
         int position = 1;
         parseSelectItem(position++);
-        while (peek().type == TokenType.COMMA) {
+        while (peekType() == TokenType.COMMA) {
             match(TokenType.COMMA);
             parseSelectItem(position++);
         }
-        if (peek().type == TokenType.IDENTIFIER && !peek().value.equalsIgnoreCase("FROM")) {
-            throw new RuntimeException("Error at position " + peek().position +
-                    ": Missing COMMA between column names '" + previous().value + "' and '" + peek().value + "'.");
+        if (peekType() == TokenType.IDENTIFIER && !tokens.is(current, "FROM")) {
+            throw error(Code.MISSING_COMMA, current, tokens.text(current - 1));
         }
     }
 
     private void parseSelectItem(int position) {
-        int start = current;
-        boolean hasAgg = parseExpression();
-        int end = current;
-        String signature = buildSignature(start, end);
-        Set<String> columnRefs = collectColumnRefsFromTokens(start, end);
-
-        String alias = null;
-        if (peek().type == TokenType.AS) {
+        SelectItemInfo item = nextSelectItem();
+        item.position = position;
+        item.start = current;
+        startHash();
+        item.isAggregate = parseExpression(item.expr);
+        item.hash = endHash();
+        item.end = current;
+
+        if (peekType() == TokenType.AS) {
             advance();
-            if (peek().type == TokenType.IDENTIFIER) {
-                alias = peek().value;
+            if (peekType() == TokenType.IDENTIFIER) {
+                item.aliasToken = current;
                 advance();
             } else {
-                throw new RuntimeException("Error at position " + peek().position + ": Expected alias after AS.");
-            }
-        }
-
-        selectItems.add(new SelectItemInfo(signature, hasAgg, alias, position, columnRefs));
-    }
-
-    private Set<String> collectColumnRefsFromTokens(int start, int end) {
-        Set<String> refs = new HashSet<>();
-        int depth = 0;
-        int aggregateStartDepth = -1;
-        for (int i = start; i < end && i < tokens.size(); i++) {
-            Token t = tokens.get(i);
-            if (t.type == TokenType.LPAREN) {
-                if (i > start && tokens.get(i - 1).type == TokenType.IDENTIFIER && isAggregateName(tokens.get(i - 1).value)) {
-                    aggregateStartDepth = depth;
-                }
-                depth++;
-            } else if (t.type == TokenType.RPAREN) {
-                depth--;
-                if (depth == aggregateStartDepth) aggregateStartDepth = -1;
-            } else if (t.type == TokenType.IDENTIFIER && !isKeyword(t.value)) {
-                if (aggregateStartDepth < 0 || depth <= aggregateStartDepth) {
-                    refs.add(t.value.toLowerCase());
-                }
+                throw error(Code.MISSING_ALIAS);
             }
         }
-        return refs;
     }
 
-    private boolean isAggregateName(String s) {
-        String u = s.toUpperCase();
-        return u.equals("COUNT") || u.equals("SUM") || u.equals("AVG") || u.equals("MIN") || u.equals("MAX");
+    private SelectItemInfo nextSelectItem() {
+        int n = selectItems.size();
+        if (n == selectItemPool.size()) selectItemPool.add(new SelectItemInfo());
+        SelectItemInfo item = selectItemPool.get(n);
+        item.clear();
+        selectItems.add(item);
+        return item;
     }
 
-    private boolean isKeyword(String s) {
-        String u = s.toUpperCase();
-        return u.equals("AS") || u.equals("AND") || u.equals("OR") || u.equals("NOT") || u.equals("IN") ||
-                u.equals("BETWEEN") || u.equals("LIKE") || u.equals("IS") || u.equals("NULL") || u.equals("BY");
+    // Keyword tokens decide by type, as the lexer recognised them: it also reads spellings with
+    // U+0131 or U+017F as MIN or SUM, which SymbolTable's folding does not. Only a `quoted` name
+    // is looked up.
+    private boolean isAggregateName(int i) {
+        TokenType t = tokens.type(i);
+        if (t == TokenType.COUNT || t == TokenType.SUM || t == TokenType.AVG || t == TokenType.MIN || t == TokenType.MAX) return true;
+        return t == TokenType.IDENTIFIER && SymbolTable.isAggregate(symbol(i));
     }
 
-    // -------------------------------------------------------------------------
-    // HAVING: Parse and collect column refs (non-aggregated)
-    // -------------------------------------------------------------------------
-    private HavingInfo parseHavingClause() {
-        HavingInfo info = new HavingInfo();
-        parseBooleanExpressionForHaving(info);
-        return info;
+    private boolean isKeyword(int i) {
+        return SymbolTable.isKeyword(symbol(i));
     }
 
-    private void parseBooleanExpressionForHaving(HavingInfo info) {
-        if (peek().type == TokenType.NOT) {
-            advance();
-            parseBooleanExpressionForHaving(info);
-            return;
-        }
-        if (peek().type == TokenType.LPAREN) {
-            advance();
-            parseBooleanExpressionForHaving(info);
-            match(TokenType.RPAREN);
-        } else {
-            parseComparisonForHaving(info);
-        }
-        while (peek().type == TokenType.AND || peek().type == TokenType.OR) {
-            advance();
-            if (peek().type == TokenType.NOT) advance();
-            if (peek().type == TokenType.LPAREN) {
-                advance();
-                parseBooleanExpressionForHaving(info);
-                match(TokenType.RPAREN);
-            } else {
-                parseComparisonForHaving(info);
-            }
-        }
-    }
-
-    private void parseComparisonForHaving(HavingInfo info) {
-        ExprInfo left = parseExpressionWithInfo();
-        TokenType op = peek().type;
-
-        if (op == TokenType.IS) {
-            advance();
-            if (peek().type == TokenType.NOT) advance();
-            match(TokenType.NULL);
-            if (!left.hasAggregate) left.columnRefs.forEach(info.columnRefs::add);
-            return;
-        }
-        if (op == TokenType.IN) {
-            advance();
-            parseInList();
-            if (!left.hasAggregate) left.columnRefs.forEach(info.columnRefs::add);
-            return;
-        }
-        if (op == TokenType.BETWEEN) {
-            advance();
-            ExprInfo low = parseExpressionWithInfo();
-            if (peek().type != TokenType.AND) throw new RuntimeException("Syntax Error: BETWEEN requires AND keyword");
-            advance();
-            ExprInfo high = parseExpressionWithInfo();
-            if (!left.hasAggregate) left.columnRefs.forEach(info.columnRefs::add);
-            if (!low.hasAggregate) low.columnRefs.forEach(info.columnRefs::add);
-            if (!high.hasAggregate) high.columnRefs.forEach(info.columnRefs::add);
-            return;
-        }
-        if (op == TokenType.LIKE) {
-            advance();
-            if (peek().type != TokenType.STRING) throw new RuntimeException("Syntax Error: LIKE requires a string pattern");
-            advance();
-            if (!left.hasAggregate) left.columnRefs.forEach(info.columnRefs::add);
-            return;
-        }
-        if (op == TokenType.EQUALS || op == TokenType.NOT_EQUALS || op == TokenType.NOT_EQUALS_SQL ||
-                op == TokenType.GT || op == TokenType.LT || op == TokenType.GE || op == TokenType.LE) {
-            advance();
-            ExprInfo right = parseExpressionWithInfo();
-            if (!left.hasAggregate) left.columnRefs.forEach(info.columnRefs::add);
-            if (!right.hasAggregate) right.columnRefs.forEach(info.columnRefs::add);
-            if (left.hasAggregate) left.columnRefs.forEach(info.aggregateColumnRefs::add);
-            if (right.hasAggregate) right.columnRefs.forEach(info.aggregateColumnRefs::add);
-            return;
-        }
-        if (!left.hasAggregate) left.columnRefs.forEach(info.columnRefs::add);
+    // Symbol id of token i's case-folded text
+    private int symbol(int i) {
+        if (i >= tokenSymbols.length) { // grow geometrically: while streaming, tokens.size() is only just past i
+            tokenSymbols = Arrays.copyOf(tokenSymbols, Math.max(Math.max(tokens.size(), i + 1), tokenSymbols.length * 2));
+        }
+        int id = tokenSymbols[i] - 1;
+        if (id < 0) {
+            id = queryId(tokens.symbol(i, symbols));
+            tokenSymbols[i] = id + 1;
+            if (i >= cachedSymbols) cachedSymbols = i + 1;
+        }
+        return id;
     }
 
-    // Parse expression and return ExprInfo (hasAggregate, columnRefs)
-    private ExprInfo parseExpressionWithInfo() {
-        ExprInfo info = new ExprInfo();
-        parseExpressionWithInfoRec(info);
-        return info;
+    private int queryId(int tableId) {
+        if (tableId < SymbolTable.FIRST_NAME) return tableId;
+        if (tableId >= stamps.length) {
+            int length = Math.max(tableId + 1, stamps.length * 2);
+            stamps = Arrays.copyOf(stamps, length);
+            queryIds = Arrays.copyOf(queryIds, length);
+        }
+        if (stamps[tableId] != epoch) {
+            stamps[tableId] = epoch;
+            if (nextQueryId == tableIds.length) tableIds = Arrays.copyOf(tableIds, nextQueryId * 2);
+            tableIds[nextQueryId] = tableId;
+            queryIds[tableId] = nextQueryId++;
+        }
+        return queryIds[tableId];
     }
 
-    private void parseExpressionWithInfoRec(ExprInfo info) {
-        if (peek().type == TokenType.LPAREN) {
-            advance();
-            parseExpressionWithInfoRec(info);
-            match(TokenType.RPAREN);
-        } else if (peek().type == TokenType.CASE) {
-            parseCaseExpressionWithInfo(info);
-        } else if (peek().type == TokenType.NUMBER || peek().type == TokenType.STRING || peek().type == TokenType.STAR ||
-                peek().type == TokenType.IDENTIFIER || peek().type == TokenType.LEFT_JOIN || peek().type == TokenType.RIGHT_JOIN || isFunctionName(peek())) {
-            if (isFunctionName(peek()) || isFunctionCall(peek())) {
-                parseFunctionCallWithInfo(info);
-            } else {
-                if (peek().type == TokenType.IDENTIFIER && !isKeyword(peek().value)) {
-                    info.columnRefs.add(peek().value.toLowerCase());
-                }
-                advance();
-            }
-        } else {
-            throw new RuntimeException("Error at position " + peek().position + ": Unexpected token '" + peek().value + "' in expression.");
-        }
-        if (peek().type == TokenType.PLUS || peek().type == TokenType.MINUS || peek().type == TokenType.STAR || peek().type == TokenType.SLASH || peek().type == TokenType.PERCENT) {
-            advance();
-            parseExpressionWithInfoRec(info);
-        }
-        if (peek().type == TokenType.EQUALS || peek().type == TokenType.NOT_EQUALS || peek().type == TokenType.NOT_EQUALS_SQL ||
-                peek().type == TokenType.GT || peek().type == TokenType.LT || peek().type == TokenType.GE || peek().type == TokenType.LE) {
-            advance();
-            parseExpressionWithInfoRec(info);
-        }
+    // Case-folded name for a query id
+    private String name(int id) {
+        return symbols.name(id < SymbolTable.FIRST_NAME ? id : tableIds[id]);
     }
 
-    /**
-     * Parse a function call. If `info` is non-null, collects column reference info
-     * for HAVING/aggregate analysis; otherwise parses without collecting info.
-     * Returns true if the function call or its arguments contain an aggregate.
-     */
-    private boolean parseFunctionCallCommon(ExprInfo info) {
-        Token funcToken = peek();
-        String funcName = funcToken.value.toUpperCase();
-        boolean isAggregate = funcName.equals("COUNT") || funcName.equals("SUM") || funcName.equals("AVG") || funcName.equals("MIN") || funcName.equals("MAX");
-        advance();
-        if (peek().type != TokenType.LPAREN) {
-            throw new RuntimeException("Syntax Error: Function '" + funcName + "' used without parentheses");
-        }
-        advance();
-        if (peek().type == TokenType.STAR) {
-            if (!funcName.equals("COUNT")) throw new RuntimeException("Invalid use of '*' with function '" + funcName + "'");
-            advance();
-            match(TokenType.RPAREN);
-            return isAggregate;
-        }
-        if (peek().type == TokenType.DISTINCT) {
-            if (!isAggregate) throw new RuntimeException("DISTINCT can only be used with aggregate functions");
-            advance();
-        }
-        if (peek().type == TokenType.RPAREN) {
-            if (funcName.equals("RAND") || funcName.equals("RANDOM")) {
-                advance();
-                return false;
-            }
-            throw new RuntimeException("Syntax Error: Function '" + funcName + "' requires arguments");
-        }
-        boolean argHasAgg = false;
-        if (info != null) {
-            parseExpressionWithInfoRec(info);
-            while (peek().type == TokenType.COMMA) {
-                advance();
-                parseExpressionWithInfoRec(info);
-            }
-            argHasAgg = !info.aggregateColumnRefs.isEmpty() || !info.columnRefs.isEmpty();
-        } else {
-            argHasAgg = parseExpression();
-            while (peek().type == TokenType.COMMA) {
-                advance();
-                argHasAgg |= parseExpression();
-            }
-        }
-        match(TokenType.RPAREN);
-        if (isAggregate && info != null) {
-            info.columnRefs.forEach(info.aggregateColumnRefs::add);
-            info.columnRefs.clear();
-        }
-        return isAggregate || argHasAgg;
+    // -------------------------------------------------------------------------
+    // HAVING: Parse and collect column refs (non-aggregated)
+    // -------------------------------------------------------------------------
+    private HavingInfo parseHavingClause() {
+        having.columnRefs.clear();
+        parseBooleanExpression(having); // aggregates are allowed here
+        return having;
     }
 
     // -------------------------------------------------------------------------
     // WHERE condition (no aggregates allowed)
     // -------------------------------------------------------------------------
     private void parseCondition() {
-        boolean hasAggregate = parseBooleanExpression();
+        boolean hasAggregate = parseBooleanExpression(null);
         if (hasAggregate) {
-            throw new RuntimeException("Invalid use of aggregate function in WHERE clause");
+            throw new SqlSemanticException(Code.AGGREGATE_IN_WHERE, null);
         }
     }
 
-    private boolean parseBooleanExpression() {
+    // Shared by WHERE and HAVING; with a HavingInfo the column refs of every operand are collected.
+    // Returns true if any operand contains an aggregate.
+    //
+    // condition -> NOT* term ((AND | OR) [NOT] term)*, term -> '(' condition ')' | comparison
+    // Like parseExpression(), a loop with a count of open parentheses instead of recursion.
+    private boolean parseBooleanExpression(HavingInfo having) {
         boolean hasAgg = false;
-        if (peek().type == TokenType.NOT) {
-            advance();
-            hasAgg |= parseBooleanExpression();
-            return hasAgg;
-        }
-        if (peek().type == TokenType.LPAREN) {
-            advance();
-            hasAgg |= parseBooleanExpression();
-            match(TokenType.RPAREN);
-        } else {
-            hasAgg |= parseComparison();
-        }
-        while (peek().type == TokenType.AND || peek().type == TokenType.OR) {
-            advance();
-            if (peek().type == TokenType.NOT) advance();
-            if (peek().type == TokenType.LPAREN) {
-                advance();
-                hasAgg |= parseBooleanExpression();
+        int open = 0;
+        boolean atStart = true; // at the start of a condition, where any number of NOTs may come
+        while (true) {
+            if (!atStart && peekType() == TokenType.NOT) advance();
+            while (true) {
+                if (atStart && peekType() == TokenType.NOT) {
+                    advance();
+                } else if (peekType() == TokenType.LPAREN) {
+                    enter();
+                    advance();
+                    open++;
+                    atStart = true;
+                } else {
+                    break;
+                }
+            }
+            hasAgg |= parseComparison(having);
+            while (peekType() != TokenType.AND && peekType() != TokenType.OR) {
+                if (open == 0) return hasAgg;
                 match(TokenType.RPAREN);
-            } else {
-                hasAgg |= parseComparison();
+                leave();
+                open--;
             }
+            advance();
+            atStart = false;
         }
-        return hasAgg;
     }
 
-    private boolean parseComparison() {
-        boolean leftHasAgg = parseExpression();
-        TokenType op = peek().type;
+    private boolean parseComparison(HavingInfo having) {
+        boolean leftHasAgg = parseExpression(operand(having));
+        collect(having);
+        TokenType op = peekType();
 
         if (op == TokenType.IS) {
             advance();
-            if (peek().type == TokenType.NOT) advance();
-            if (peek().type != TokenType.NULL) {
-                throw new RuntimeException("Syntax Error: Expected NULL after IS" + (peek().type == TokenType.NOT ? " NOT" : ""));
+            if (peekType() == TokenType.NOT) advance();
+            if (peekType() != TokenType.NULL) {
+                throw error(Code.IS_WITHOUT_NULL, current, peekType() == TokenType.NOT ? " NOT" : "");
             }
             advance();
             return leftHasAgg;
@@ -530,163 +689,291 @@ public class Parser {
         }
         if (op == TokenType.BETWEEN) {
             advance();
-            boolean lowAgg = parseExpression();
-            if (peek().type != TokenType.AND) throw new RuntimeException("Syntax Error: BETWEEN requires AND keyword");
+            boolean lowAgg = parseExpression(operand(having));
+            collect(having);
+            if (peekType() != TokenType.AND) throw error(Code.BETWEEN_WITHOUT_AND);
             advance();
-            boolean highAgg = parseExpression();
+            boolean highAgg = parseExpression(operand(having));
+            collect(having);
             return leftHasAgg | lowAgg | highAgg;
         }
         if (op == TokenType.LIKE) {
             advance();
-            if (peek().type != TokenType.STRING) throw new RuntimeException("Syntax Error: LIKE requires a string pattern");
+            if (peekType() != TokenType.STRING) throw error(Code.LIKE_WITHOUT_STRING);
             advance();
             return leftHasAgg;
         }
         if (op == TokenType.EQUALS || op == TokenType.NOT_EQUALS || op == TokenType.NOT_EQUALS_SQL ||
                 op == TokenType.GT || op == TokenType.LT || op == TokenType.GE || op == TokenType.LE) {
             advance();
-            boolean rightHasAgg = parseExpression();
+            boolean rightHasAgg = parseExpression(operand(having));
+            collect(having);
             return leftHasAgg | rightHasAgg;
         }
         return leftHasAgg;
     }
 
+    // Each HAVING operand starts from an empty ExprInfo, since an aggregate call clears the refs of
+    // its operand only; collect() then adds the operand's refs to the HAVING clause's
+    private ExprInfo operand(HavingInfo having) {
+        if (having == null) return null;
+        operand.clear();
+        return operand;
+    }
+
+    private void collect(HavingInfo having) {
+        if (having != null) having.columnRefs.or(operand.columnRefs);
+    }
+
+    // IN lists generated by ORMs can hold tens of thousands of literals. A run of plain literals
+    // (NUMBER or STRING followed by ',' or ')') is skipped in a tight loop over the token types;
+    // the first element that is anything else goes through parseExpression(). Skipping is only
+    // safe because parseExpression() accepts any lone literal: none of them is a function name.
     private void parseInList() {
-        if (peek().type != TokenType.LPAREN) throw new RuntimeException("Syntax Error: Expected '(' after IN");
+        if (peekType() != TokenType.LPAREN) throw error(Code.IN_WITHOUT_PAREN);
+        int open = current;
         advance();
-        if (peek().type == TokenType.RPAREN) throw new RuntimeException("Syntax Error: IN list cannot be empty");
-        parseExpression();
-        while (peek().type == TokenType.COMMA) {
-            advance();
+        if (peekType() == TokenType.RPAREN) throw error(Code.EMPTY_IN_LIST);
+        int elements = 0;
+        while (true) {
+            if (!hashing) {
+                int i = current;
+                while (true) {
+                    fill(i + 1);
+                    TokenType t = tokens.type(i);
+                    if ((t != TokenType.NUMBER && t != TokenType.STRING) || tokens.type(i + 1) != TokenType.COMMA) break;
+                    i += 2;
+                    elements++;
+                }
+                current = i;
+            }
             parseExpression();
+            elements++;
+            if (peekType() != TokenType.COMMA) break;
+            advance();
         }
         match(TokenType.RPAREN);
+        inLists++;
+        inListElements += elements;
+        if (elements > largestInList) largestInList = elements;
+        if (elements > maxInListElements) throw error(Code.IN_LIST_TOO_LONG, open, String.valueOf(maxInListElements));
     }
 
     // -------------------------------------------------------------------------
-    // Core parseExpression (returns hasAggregate only)
+    // Expressions: a single pass that returns whether the expression contains an aggregate and,
+    // given an ExprInfo, records the columns it references while parsing, so nothing has to walk
+    // the tokens again afterwards.
+    //
+    // expression -> operand (operator operand)*
+    // operand    -> '(' expression ')' | CASE ... END | function '(' arguments ')' | literal | column
+    //
+    // Nothing here recurses. Operators are taken in a loop, open parentheses are counted, and a
+    // function call or CASE whose inner expressions are being parsed sits on an explicit stack of
+    // frames. Machine-generated input (a + a + ..., thousands of nested calls) therefore costs no
+    // Java stack; nesting deeper than maxDepth is rejected with TOO_DEEP.
     // -------------------------------------------------------------------------
     private boolean parseExpression() {
-        boolean hasAggregate = false;
-        if (peek().type == TokenType.LPAREN) {
-            advance();
-            hasAggregate |= parseExpression();
-            match(TokenType.RPAREN);
-        } else if (peek().type == TokenType.CASE) {
-            hasAggregate |= parseCaseExpression();
-        } else if (peek().type == TokenType.NUMBER || peek().type == TokenType.STRING || peek().type == TokenType.IDENTIFIER || peek().type == TokenType.STAR || peek().type == TokenType.LEFT_JOIN || peek().type == TokenType.RIGHT_JOIN || isFunctionName(peek())) {
-            if (isFunctionName(peek()) || isFunctionCall(peek())) {
-                hasAggregate |= parseFunctionCall();
-            } else {
+        return parseExpression(null);
+    }
+
+    private boolean parseExpression(ExprInfo info) {
+        int base = frameCount;
+        boolean hasAggregate = false; // of the innermost expression being parsed
+        int open = 0;                 // its parentheses that are not closed yet
+        expression:
+        while (true) {
+            while (peekType() == TokenType.LPAREN) {
+                enter();
                 advance();
+                open++;
+            }
+
+            // the primary: a nested expression starts, or a complete operand is read
+            if (peekType() == TokenType.CASE) {
+                enter();
+                advance();
+                match(TokenType.WHEN);
+                push(Frame.CASE_WHEN, false, false, hasAggregate, open);
+                hasAggregate = false;
+                open = 0;
+                continue;
+            }
+            if (peekType() == TokenType.NUMBER || peekType() == TokenType.STRING || peekType() == TokenType.IDENTIFIER || peekType() == TokenType.STAR || peekType() == TokenType.LEFT_JOIN || peekType() == TokenType.RIGHT_JOIN || isFunctionName(current)) {
+                if (isFunctionName(current) || isFunctionCall(current)) {
+                    int call = beginFunctionCall(info, hasAggregate, open);
+                    if (call == CALL_HAS_ARGUMENTS) {
+                        hasAggregate = false;
+                        open = 0;
+                        continue;
+                    }
+                    hasAggregate |= call == CALL_AGGREGATE;
+                } else {
+                    if (info != null && peekType() == TokenType.IDENTIFIER && !isKeyword(current)) {
+                        int id = symbol(current);
+                        info.columnRefs.set(id);
+                        info.identifiers.set(id);
+                        if (!info.insideQuotedAggregate) info.names.set(id);
+                    }
+                    advance();
+                }
+            } else {
+                throw error(Code.UNEXPECTED_TOKEN);
+            }
+
+            // after an operand: an operator continues the expression, anything else closes levels
+            while (true) {
+                if (isBinaryOperator(peekType())) {
+                    advance();
+                    continue expression;
+                }
+                if (open > 0) {
+                    match(TokenType.RPAREN);
+                    leave();
+                    open--;
+                    continue;
+                }
+                if (frameCount == base) return hasAggregate;
+
+                // an inner expression of the call or CASE on top of the stack is complete
+                Frame frame = frames.get(frameCount - 1);
+                if (frame.kind == Frame.CALL) {
+                    frame.argumentsHaveAggregate |= hasAggregate;
+                    if (peekType() == TokenType.COMMA) {
+                        advance();
+                        hasAggregate = false;
+                        continue expression;
+                    }
+                    match(TokenType.RPAREN);
+                    if (frame.quotedAggregate) info.insideQuotedAggregate = false;
+                    if (frame.isAggregate && info != null) {
+                        // columns used inside an aggregate are not HAVING refs; this drops every ref
+                        // collected so far in the expression, not only the arguments'
+                        info.columnRefs.clear();
+                    }
+                    hasAggregate = frame.outerHasAggregate | frame.isAggregate | frame.argumentsHaveAggregate;
+                } else {
+                    if (frame.kind == Frame.CASE_WHEN) {
+                        match(TokenType.THEN);
+                        frame.kind = Frame.CASE_RESULT;
+                        hasAggregate = false;
+                        continue expression;
+                    }
+                    if (frame.kind == Frame.CASE_RESULT && (peekType() == TokenType.WHEN || peekType() == TokenType.ELSE)) {
+                        frame.kind = peekType() == TokenType.WHEN ? Frame.CASE_WHEN : Frame.CASE_ELSE;
+                        advance();
+                        hasAggregate = false;
+                        continue expression;
+                    }
+                    match(TokenType.END);
+                    hasAggregate = frame.outerHasAggregate; // aggregates inside CASE do not count
+                }
+                open = frame.outerOpen;
+                frameCount--;
+                leave();
             }
-        } else {
-            throw new RuntimeException("Error at position " + peek().position + ": Unexpected token '" + peek().value + "' in expression.");
-        }
-        if (peek().type == TokenType.PLUS || peek().type == TokenType.MINUS || peek().type == TokenType.STAR || peek().type == TokenType.SLASH || peek().type == TokenType.PERCENT) {
-            advance();
-            hasAggregate |= parseExpression();
-        }
-        // Support comparison in expressions e.g. (price > 100) for GROUP BY
-        if (peek().type == TokenType.EQUALS || peek().type == TokenType.NOT_EQUALS || peek().type == TokenType.NOT_EQUALS_SQL ||
-                peek().type == TokenType.GT || peek().type == TokenType.LT || peek().type == TokenType.GE || peek().type == TokenType.LE) {
-            advance();
-            hasAggregate |= parseExpression();
         }
-        return hasAggregate;
     }
 
-    private boolean parseCaseExpression() {
-        match(TokenType.CASE);
-        match(TokenType.WHEN);
-        parseExpression();
-        match(TokenType.THEN);
-        parseExpression();
-        while (peek().type == TokenType.WHEN) {
-            advance();
-            parseExpression();
-            match(TokenType.THEN);
-            parseExpression();
-        }
-        if (peek().type == TokenType.ELSE) {
-            advance();
-            parseExpression();
-        }
-        match(TokenType.END);
-        return false;
+    // Arithmetic, and comparison (e.g. (price > 100) in GROUP BY). The parser builds no tree, so
+    // operator precedence does not change what is accepted and all of them are handled alike.
+    private static boolean isBinaryOperator(TokenType t) {
+        return t == TokenType.PLUS || t == TokenType.MINUS || t == TokenType.STAR || t == TokenType.SLASH || t == TokenType.PERCENT
+                || t == TokenType.EQUALS || t == TokenType.NOT_EQUALS || t == TokenType.NOT_EQUALS_SQL
+                || t == TokenType.GT || t == TokenType.LT || t == TokenType.GE || t == TokenType.LE;
     }
 
-    private void parseCaseExpressionWithInfo(ExprInfo info) {
-        match(TokenType.CASE);
-        match(TokenType.WHEN);
-        parseExpressionWithInfoRec(info);
-        match(TokenType.THEN);
-        parseExpressionWithInfoRec(info);
-        while (peek().type == TokenType.WHEN) {
-            advance();
-            parseExpressionWithInfoRec(info);
-            match(TokenType.THEN);
-            parseExpressionWithInfoRec(info);
-        }
-        if (peek().type == TokenType.ELSE) {
-            advance();
-            parseExpressionWithInfoRec(info);
-        }
-        match(TokenType.END);
+    // One more level of nesting (parenthesis, function arguments, CASE) at the current token
+    private void enter() {
+        if (++depth > maxDepth) throw error(Code.TOO_DEEP, current, String.valueOf(maxDepth));
     }
 
-    private boolean isFunctionName(Token t) {
-        return t.type == TokenType.COUNT || t.type == TokenType.SUM || t.type == TokenType.AVG || t.type == TokenType.MIN || t.type == TokenType.MAX || t.value.equalsIgnoreCase("MOD");
+    private void leave() {
+        depth--;
+    }
+
+    private void push(int kind, boolean isAggregate, boolean quotedAggregate, boolean outerHasAggregate, int outerOpen) {
+        if (frameCount == frames.size()) frames.add(new Frame());
+        Frame frame = frames.get(frameCount++);
+        frame.kind = kind;
+        frame.isAggregate = isAggregate;
+        frame.quotedAggregate = quotedAggregate;
+        frame.argumentsHaveAggregate = false;
+        frame.outerHasAggregate = outerHasAggregate;
+        frame.outerOpen = outerOpen;
+    }
+
+    // MOD is a plain identifier to the lexer; only a name spells it, a 'mod' string is just a string
+    // (the fingerprint keeps names but not string text, so ValidationCache relies on this too)
+    private boolean isFunctionName(int i) {
+        TokenType t = tokens.type(i);
+        return t == TokenType.COUNT || t == TokenType.SUM || t == TokenType.AVG || t == TokenType.MIN || t == TokenType.MAX ||
+                (t == TokenType.IDENTIFIER && tokens.is(i, "MOD"));
     }
 
     // Identifies tokens that start a function call (identifier+LPAREN, or LEFT/RIGHT when used as string functions)
-    private boolean isFunctionCall(Token t) {
-        if (current + 1 >= tokens.size()) return false;
-        boolean hasLparen = tokens.get(current + 1).type == TokenType.LPAREN;
-        return (t.type == TokenType.IDENTIFIER && hasLparen) ||
-                ((t.type == TokenType.LEFT_JOIN || t.type == TokenType.RIGHT_JOIN) && hasLparen);
+    private boolean isFunctionCall(int i) {
+        fill(i + 1);
+        if (i + 1 >= tokens.size()) return false;
+        TokenType t = tokens.type(i);
+        boolean hasLparen = tokens.type(i + 1) == TokenType.LPAREN;
+        return (t == TokenType.IDENTIFIER && hasLparen) ||
+                ((t == TokenType.LEFT_JOIN || t == TokenType.RIGHT_JOIN) && hasLparen);
     }
 
-    private boolean parseFunctionCall() {
-        Token funcToken = peek();
-        String funcName = funcToken.value.toUpperCase();
-        boolean isAggregate = funcName.equals("COUNT") || funcName.equals("SUM") || funcName.equals("AVG") || funcName.equals("MIN") || funcName.equals("MAX");
+    private static final int CALL_PLAIN = 0, CALL_AGGREGATE = 1, CALL_HAS_ARGUMENTS = 2;
+
+    /**
+     * Reads a function call up to its arguments. Calls without argument expressions (COUNT(*),
+     * RAND()) are read completely and give CALL_AGGREGATE or CALL_PLAIN. Otherwise a CALL frame
+     * (saving the state of the expression the call is in) is pushed and the caller goes on with the
+     * first argument (CALL_HAS_ARGUMENTS).
+     * If `info` is non-null, collects column reference info for HAVING/aggregate analysis as well.
+     */
+    private int beginFunctionCall(ExprInfo info, boolean outerHasAggregate, int outerOpen) {
+        int funcIndex = current;
+        boolean isAggregate = isAggregateName(funcIndex);
+        // Names like MOD or a `quoted` aggregate are IDENTIFIER tokens and count as names themselves;
+        // the arguments of a `quoted` aggregate do not
+        boolean identifier = info != null && tokens.type(funcIndex) == TokenType.IDENTIFIER;
+        boolean quotedAggregate = identifier && isAggregate;
+        if (identifier && !isKeyword(funcIndex)) {
+            info.identifiers.set(symbol(funcIndex));
+            if (!info.insideQuotedAggregate) info.names.set(symbol(funcIndex));
+        }
         advance();
-        if (peek().type != TokenType.LPAREN) {
-            throw new RuntimeException("Syntax Error: Aggregate/function '" + funcName + "' used without parentheses");
+        if (peekType() != TokenType.LPAREN) {
+            throw error(Code.AGGREGATE_WITHOUT_PARENS, funcIndex, null);
         }
         advance();
-        if (peek().type == TokenType.STAR) {
-            if (!funcName.equals("COUNT")) throw new RuntimeException("Invalid use of '*' with function '" + funcName + "'");
+        if (quotedAggregate) info.insideQuotedAggregate = true;
+        if (peekType() == TokenType.STAR) {
+            if (!tokens.is(funcIndex, "COUNT")) throw error(Code.STAR_ARGUMENT, funcIndex, null);
             advance();
             match(TokenType.RPAREN);
-            return isAggregate;
+            if (quotedAggregate) info.insideQuotedAggregate = false;
+            return isAggregate ? CALL_AGGREGATE : CALL_PLAIN;
         }
-        if (peek().type == TokenType.DISTINCT) {
-            if (!isAggregate) throw new RuntimeException("DISTINCT can only be used with aggregate functions");
+        if (peekType() == TokenType.DISTINCT) {
+            if (!isAggregate) throw error(Code.DISTINCT_NOT_AGGREGATE);
             advance();
         }
-        if (peek().type == TokenType.RPAREN) {
-            if (funcName.equals("RAND") || funcName.equals("RANDOM")) {
+        if (peekType() == TokenType.RPAREN) {
+            if (tokens.is(funcIndex, "RAND") || tokens.is(funcIndex, "RANDOM")) {
                 advance();
-                return false;
+                return CALL_PLAIN;
             }
-            throw new RuntimeException("Syntax Error: Function '" + funcName + "' requires arguments");
-        }
-        boolean argAgg = parseExpression();
-        while (peek().type == TokenType.COMMA) {
-            advance();
-            argAgg |= parseExpression();
+            throw error(Code.FUNCTION_WITHOUT_ARGUMENTS, funcIndex, null);
         }
-        match(TokenType.RPAREN);
-        return isAggregate || argAgg;
+        enter();
+        push(Frame.CALL, isAggregate, quotedAggregate, outerHasAggregate, outerOpen);
+        return CALL_HAS_ARGUMENTS;
     }
 
     // -------------------------------------------------------------------------
     // Helper methods
     // -------------------------------------------------------------------------
     private void match(TokenType expected) {
-        if (peek().type == expected) {
+        if (peekType() == expected) {
             advance();
         } else {
             generateDetailedError(expected);
@@ -694,67 +981,156 @@ public class Parser {
     }
 
     private void generateDetailedError(TokenType expected) {
-        Token currentToken = peek();
-        String msg = "Syntax Error at position " + currentToken.position + ": ";
-        if (expected == TokenType.FROM && currentToken.type == TokenType.WHERE) {
-            msg += "Found 'WHERE' before 'FROM'. The FROM clause must come before WHERE.";
+        if (expected == TokenType.FROM && peekType() == TokenType.WHERE) {
+            throw error(Code.WHERE_BEFORE_FROM);
         } else if (expected == TokenType.IDENTIFIER) {
-            msg += "Expected a Column or Table name, but found '" + currentToken.value + "'.";
+            throw error(Code.EXPECTED_NAME);
         } else {
-            msg += "Expected " + expected + " but found '" + currentToken.value + "'.";
+            throw error(Code.EXPECTED_TOKEN, current, expected.name());
         }
-        throw new RuntimeException(msg);
     }
 
-    private Token peek() {
-        return tokens.get(current);
+    private SqlSyntaxException error(Code code) {
+        return error(code, current, null);
+    }
+
+    // Rejection at token i; nothing is formatted unless the message is asked for
+    private SqlSyntaxException error(Code code, int i, String detail) {
+        return new SqlSyntaxException(code, i, tokens.start(i), tokens.source(), tokens.token(i), detail);
+    }
+
+    // Value of the ordinal NUMBER token at i (GROUP BY 2, ORDER BY 1)
+    private int ordinal(int i) {
+        readLiterals(i, i + 1);
+        String text = tokens.text(i);
+        int value = 0;
+        for (int k = 0; k < text.length(); k++) {
+            int digit = Character.digit(text.charAt(k), 10);
+            if (digit < 0 || value > (Integer.MAX_VALUE - digit) / 10) throw error(Code.NOT_AN_INTEGER, i, null);
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    // Notes the NUMBER and STRING tokens in [from, to) as read (see literalsRead)
+    private void readLiterals(int from, int to) {
+        for (int i = from; i < to; i++) {
+            TokenType type = tokens.type(i);
+            if (type != TokenType.NUMBER && type != TokenType.STRING) continue;
+            if (literalsReadCount == literalsRead.length) literalsRead = Arrays.copyOf(literalsRead, literalsReadCount * 2);
+            literalsRead[literalsReadCount++] = i;
+        }
     }
 
-    private Token previous() {
-        return tokens.get(current - 1);
+    private TokenType peekType() {
+        return tokens.type(current);
     }
 
     private void advance() {
-        if (current < tokens.size()) current++;
+        if (current < tokens.size()) {
+            if (hashing) hash = tokens.hash(current, hash);
+            current++;
+        }
+        fill(current);
+    }
+
+    private void startHash() {
+        hashing = true;
+        hash = TokenBuffer.HASH_SEED;
+    }
+
+    private long endHash() {
+        hashing = false;
+        return hash;
+    }
+
+    // Pulls tokens from the lexer (in streaming mode) until index i is available or the input ends
+    private void fill(int i) {
+        while (lexer != null && !lexerDone && tokens.size() <= i) {
+            if (lexer.nextToken(tokens) == TokenType.EOF) lexerDone = true;
+        }
     }
 
     // -------------------------------------------------------------------------
     // Inner classes for GROUP BY / HAVING validation
     // -------------------------------------------------------------------------
-    private static class SelectItemInfo {
-        final String signature;
-        final boolean isAggregate;
-        final String alias;
-        final int position;
-        final Set<String> columnRefs;
+    // Column sets are BitSets indexed by symbol id (see SymbolTable). Expressions are kept as token
+    // ranges plus a hash of their normalized text; hash matches are confirmed on the tokens
+    // (TokenBuffer.sameText()), so text is only built for aliases and error messages. Items are reused (see nextSelectItem()), so clear()
+    // must reset every field.
+    private class SelectItemInfo {
+        int start, end;          // tokens of the expression
+        long hash;               // TokenBuffer.hash() of those tokens
+        boolean isAggregate;
+        int aliasToken;          // the name after AS, -1 if none
+        int position;
+        final ExprInfo expr = new ExprInfo(); // expr.names: the columns the item refers to
+        private String signature;
 
-        SelectItemInfo(String signature, boolean isAggregate, String alias, int position, Set<String> columnRefs) {
-            this.signature = signature;
-            this.isAggregate = isAggregate;
-            this.alias = alias;
-            this.position = position;
-            this.columnRefs = columnRefs != null ? columnRefs : new HashSet<>();
+        void clear() {
+            start = end = aliasToken = position = -1;
+            hash = 0;
+            isAggregate = false;
+            expr.clear();
+            signature = null;
+        }
+
+        String signature() {
+            if (signature == null) signature = buildSignature(start, end);
+            return signature;
         }
     }
 
-    private static class GroupByItem {
-        final int ordinal;       // 1-based, or -1 if expression
-        final String expression; // when ordinal == -1
+    private class GroupByItem {
+        int ordinal;             // 1-based, or -1 if expression
+        int start, end;          // tokens of the expression, when ordinal == -1
+        long hash;               // TokenBuffer.hash() of those tokens
+        final ExprInfo expr = new ExprInfo(); // expr.identifiers: the names used in the expression
+        private String normalized;
+
+        void clear() {
+            ordinal = start = end = -1;
+            hash = 0;
+            expr.clear();
+            normalized = null;
+        }
 
-        GroupByItem(int ordinal, String expression) {
-            this.ordinal = ordinal;
-            this.expression = expression;
+        String normalized() {
+            if (normalized == null) normalized = normalizeSignature(buildSignature(start, end));
+            return normalized;
         }
     }
 
+    // A function call or CASE expression whose inner expressions are being parsed
+    private static class Frame {
+        static final int CALL = 0;        // in the arguments
+        static final int CASE_WHEN = 1;   // in a WHEN condition
+        static final int CASE_RESULT = 2; // in a THEN result
+        static final int CASE_ELSE = 3;   // in the ELSE result
+
+        int kind;
+        boolean isAggregate, quotedAggregate; // CALL: the function
+        boolean argumentsHaveAggregate;       // CALL: so far
+        boolean outerHasAggregate;            // state of the enclosing expression, restored when done
+        int outerOpen;
+    }
+
     private static class HavingInfo {
-        final Set<String> columnRefs = new HashSet<>();
-        final Set<String> aggregateColumnRefs = new HashSet<>();
+        final BitSet columnRefs = new BitSet();
     }
 
+    // What parseExpression() found out about one expression
     private static class ExprInfo {
-        final Set<String> columnRefs = new HashSet<>();
-        final Set<String> aggregateColumnRefs = new HashSet<>();
-        boolean hasAggregate = false;
+        final BitSet columnRefs = new BitSet();  // HAVING view: column operands outside aggregate calls
+        final BitSet names = new BitSet();       // select item view: column and function names outside `quoted` aggregates
+        final BitSet identifiers = new BitSet(); // GROUP BY view: every column and function name
+        boolean insideQuotedAggregate = false;
+
+        void clear() {
+            columnRefs.clear();
+            names.clear();
+            identifiers.clear();
+            insideQuotedAggregate = false;
+        }
     }
 }
@@ -0,0 +1,35 @@
+package com.sqlorb;
+
+// One reusable Parser per thread, for request handlers that validate query after query:
+//
+//     Parser parser = ParserPool.acquire(sql);
+//     parser.parseQuery();
+//
+// The parser belongs to the calling thread and stays valid until that thread's next acquire().
+// Threads are expected to be pooled (like the HTTP server's executor); a thread per request would
+// build a new parser every time and gain nothing.
+public final class ParserPool {
+    // A parser that grew past these on an unusually large query is dropped rather than kept
+    static final int MAX_RETAINED_TOKENS = 1 << 16;
+    static final int MAX_RETAINED_SYMBOLS = 1 << 14;
+
+    private static final ThreadLocal<Parser> PARSERS = ThreadLocal.withInitial(Parser::new);
+
+    private ParserPool() {
+    }
+
+    // This thread's parser, reset to parse sql
+    public static Parser acquire(CharSequence sql) {
+        return acquire(sql, 0);
+    }
+
+    // This thread's parser, reset to parse sql from char from on
+    public static Parser acquire(CharSequence sql, int from) {
+        Parser parser = PARSERS.get();
+        if (parser.retainedTokens() > MAX_RETAINED_TOKENS || parser.retainedSymbols() > MAX_RETAINED_SYMBOLS) {
+            parser = new Parser();
+            PARSERS.set(parser);
+        }
+        return parser.reset(sql, from);
+    }
+}
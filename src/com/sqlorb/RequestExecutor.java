@@ -0,0 +1,170 @@
+package com.sqlorb;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Runs the server's exchanges with admission control: at most maxConcurrent run at once and at
+// most maxQueued more wait for a turn. An exchange past both is not queued at all; it runs right
+// away on HttpServer's dispatcher thread, where shed() (installed on every context) answers 503
+// with a Retry-After header without reading the body. An overloaded server thus answers every
+// client quickly instead of growing a backlog that times them all out.
+//
+// Modes:
+//   pool       maxConcurrent platform threads (the default)
+//   virtual    a virtual thread per exchange, maxConcurrent of them running at once. Needs Java 21;
+//              the factory is looked up at run time so the code still builds on 17, where this
+//              mode falls back to pool.
+//   dispatcher HttpServer's own thread, one exchange at a time and no limits (the old behaviour).
+//              HttpServer takes this mode as a null executor; see executor().
+final class RequestExecutor implements Executor {
+    private static final ThreadLocal<Boolean> SHEDDING = new ThreadLocal<>();
+
+    private final String mode;
+    private final ExecutorService workers;  // null in dispatcher mode
+    private final Semaphore running;        // virtual mode: threads are free, permits are not
+    private final int capacity;             // running + queued
+    private final int retryAfterSeconds;
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final LongAdder shedCount = new LongAdder();
+
+    RequestExecutor(String mode, int maxConcurrent, int maxQueued, int retryAfterSeconds) {
+        if (maxConcurrent < 1) throw new IllegalArgumentException("maxConcurrent must be >= 1: " + maxConcurrent);
+        if (maxQueued < 0) throw new IllegalArgumentException("maxQueued must be >= 0: " + maxQueued);
+        ExecutorService virtual = null;
+        if (mode.equals("virtual")) {
+            virtual = virtualThreadPerTask();
+            if (virtual == null) {
+                System.err.println("Virtual threads need Java 21+; using a pool of " + maxConcurrent + " threads.");
+                mode = "pool";
+            }
+        }
+        switch (mode) {
+            case "pool":
+                workers = pool(maxConcurrent);
+                running = null;
+                break;
+            case "virtual":
+                workers = virtual;
+                running = new Semaphore(maxConcurrent);
+                break;
+            case "dispatcher":
+                workers = null;
+                running = null;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown executor mode: " + mode + " (pool, virtual or dispatcher)");
+        }
+        this.mode = mode;
+        this.capacity = maxConcurrent + maxQueued;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    // The mode actually in use (virtual may have fallen back to pool)
+    String mode() {
+        return mode;
+    }
+
+    // What to hand HttpServer.setExecutor(): this, or null for the dispatcher thread
+    Executor executor() {
+        return workers == null ? null : this;
+    }
+
+    @Override
+    public void execute(Runnable exchange) {
+        if (admitted.incrementAndGet() > capacity) {
+            admitted.decrementAndGet();
+            shedCount.increment();
+            SHEDDING.set(Boolean.TRUE);
+            try {
+                exchange.run(); // only parses the request head; shed() answers
+            } finally {
+                SHEDDING.remove();
+            }
+            return;
+        }
+        try {
+            workers.execute(() -> {
+                if (running != null) running.acquireUninterruptibly();
+                try {
+                    exchange.run();
+                } finally {
+                    if (running != null) running.release();
+                    admitted.decrementAndGet();
+                }
+            });
+        } catch (RuntimeException e) { // shut down
+            admitted.decrementAndGet();
+            throw e;
+        }
+    }
+
+    // Exchanges running or waiting for a turn
+    int inFlight() {
+        return admitted.get();
+    }
+
+    // Exchanges answered 503 so far
+    long shed() {
+        return shedCount.sum();
+    }
+
+    // Lets the running and queued exchanges finish, then stops the worker threads (see Server.stop)
+    void shutdown() {
+        if (workers != null) workers.shutdown();
+    }
+
+    // The filter that answers the exchanges execute() turned away
+    Filter shedFilter() {
+        return new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                if (SHEDDING.get() == null) {
+                    chain.doFilter(exchange);
+                    return;
+                }
+                byte[] body = "{\"status\": \"error\", \"message\": \"Server busy, retry later.\"}".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+                exchange.sendResponseHeaders(503, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+
+            @Override
+            public String description() {
+                return "503 when the executor is saturated";
+            }
+        };
+    }
+
+    private static ExecutorService pool(int threads) {
+        AtomicInteger ids = new AtomicInteger();
+        // unbounded queue: execute() already caps what gets in
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                task -> new Thread(task, "sqlorb-worker-" + ids.incrementAndGet()));
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() where the runtime has it, null otherwise
+    private static ExecutorService virtualThreadPerTask() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.sqlorb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Validates a script of ';'-separated statements (a migration file, a dump) in one pass. Pull style,
+// like Lexer.nextToken(): each next() parses one statement and leaves its outcome in index(),
+// start() / end() and error().
+//
+// The script is lexed once, and each statement is parsed straight from the shared token buffer,
+// which drops the statement's tokens before the next one is read. Memory therefore follows the
+// largest statement, not the script. A rejected statement does not stop the run: parsing picks up
+// after its ';'. Only an unterminated string ends it early, as it swallows the rest of the script.
+public final class ScriptParser {
+    private final Parser parser;
+    private final int stopAt;   // no statement starting at or after this char is parsed
+    private int resume;         // token the next statement starts at
+    private int nextStart = -1; // char the first statement not parsed starts at, -1 at the end
+    private boolean done;
+    private SqlLexicalException pending; // hit while looking past the last statement's ';'
+
+    private int index;       // statements returned so far
+    private int start, end;  // chars of the current statement, without its ';'
+    private int floor;       // end of the previous statement's ';', where this one's text begins
+    private int limit;       // end of the current statement's ';', or of the script
+    private SqlSyntaxException error;
+
+    public ScriptParser(CharSequence script) {
+        this(new Parser().reset(script));
+    }
+
+    // Runs on a parser that was just reset to the script text (e.g. by ParserPool.acquire())
+    public ScriptParser(Parser parser) {
+        this(parser, Integer.MAX_VALUE);
+    }
+
+    // Stops before the first statement that starts at or after char stopAt; see resumeAt().
+    // ParallelScriptParser runs one of these per chunk.
+    ScriptParser(Parser parser, int stopAt) {
+        this.parser = parser;
+        this.stopAt = stopAt;
+    }
+
+    // Parses the next statement; false once the script has none left. Empty statements (";;")
+    // are skipped.
+    public boolean next() {
+        if (done) return false;
+        error = null;
+        floor = limit;
+        if (pending != null) {
+            if (stop(pending.position)) return false;
+            index++;
+            start = pending.position;
+            fail(pending);
+            return true;
+        }
+        try {
+            parser.nextStatement(resume);
+            while (parser.tokenType(0) == TokenType.SEMICOLON) parser.nextStatement(1);
+            if (parser.tokenType(0) == TokenType.EOF) {
+                done = true;
+                return false;
+            }
+            if (stop(parser.tokenStart(0))) return false;
+        } catch (SqlLexicalException e) {
+            // an unterminated string where a statement would start is a statement of its own
+            if (stop(e.position)) return false;
+            index++;
+            start = e.position;
+            fail(e);
+            return true;
+        }
+
+        index++;
+        start = parser.tokenStart(0);
+        int stop; // the statement's ';' or EOF token
+        try {
+            stop = parser.parseStatement() ? parser.currentToken() - 1 : parser.currentToken();
+        } catch (SqlLexicalException e) {
+            int next = parser.currentToken();
+            if (next == 0 || parser.tokenType(next - 1) != TokenType.SEMICOLON) {
+                fail(e);
+                return true;
+            }
+            pending = e; // the statement is fine, the bad string starts the next one
+            stop = next - 1;
+        } catch (SqlSyntaxException e) {
+            error = e;
+            try {
+                stop = parser.currentToken();
+                while (parser.tokenType(stop) != TokenType.SEMICOLON && parser.tokenType(stop) != TokenType.EOF) stop++;
+            } catch (SqlLexicalException swallowed) {
+                fail(e); // the statement keeps its own error
+                return true;
+            }
+        }
+        boolean terminated = parser.tokenType(stop) == TokenType.SEMICOLON;
+        end = parser.tokenEnd(stop - 1);
+        limit = terminated ? parser.tokenEnd(stop) : parser.tokenStart(stop);
+        resume = terminated ? stop + 1 : stop;
+        return true;
+    }
+
+    // True (and done) if a statement starting at char start is past stopAt
+    private boolean stop(int start) {
+        if (start < stopAt) return false;
+        nextStart = start;
+        done = true;
+        return true;
+    }
+
+    // Where the statement after the last one next() returned starts: a char offset (at or after
+    // stopAt), or -1 if the script has no more statements
+    int resumeAt() {
+        return nextStart;
+    }
+
+    // Once next() has returned false: the lexer warnings after the last statement returned, which
+    // belong to the statement at resumeAt() (none if the script has no more statements)
+    List<Diagnostic> trailingDiagnostics() {
+        if (nextStart < 0) return Collections.emptyList();
+        List<Diagnostic> trailing = new ArrayList<>();
+        for (Diagnostic d : parser.diagnostics()) {
+            if (d.position >= limit && d.position < nextStart) trailing.add(d);
+        }
+        return trailing.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(trailing);
+    }
+
+    // The statement runs to the end of the script and nothing follows it
+    private void fail(SqlSyntaxException e) {
+        error = e;
+        done = true;
+        end = limit = parser.source().length();
+    }
+
+    // 1-based number of the current statement, empty statements not counted
+    public int index() {
+        return index;
+    }
+
+    // Char offsets of the current statement in the script: its first token to its last, leaving
+    // out the ';' and any whitespace or comments around it
+    public int start() {
+        return start;
+    }
+
+    public int end() {
+        return end;
+    }
+
+    public CharSequence statement() {
+        return parser.source().subSequence(start, end);
+    }
+
+    public boolean isValid() {
+        return error == null;
+    }
+
+    // Why the current statement was rejected, or null if it is valid. Positions in the exception
+    // are offsets into the whole script.
+    public SqlSyntaxException error() {
+        return error;
+    }
+
+    // Lexer warnings between the previous statement's ';' and this one's
+    public List<Diagnostic> diagnostics() {
+        List<Diagnostic> all = parser.diagnostics();
+        if (all.isEmpty()) return Collections.emptyList();
+        List<Diagnostic> mine = new ArrayList<>();
+        for (Diagnostic d : all) {
+            if (d.position >= floor && d.position < limit) mine.add(d);
+        }
+        return Collections.unmodifiableList(mine);
+    }
+}
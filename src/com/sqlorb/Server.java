@@ -4,36 +4,146 @@ import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
 
 public class Server {
 
+    // Verdicts by query shape, shared by all handler threads (see ValidationCache)
+    static final ValidationCache CACHE = new ValidationCache(50_000);
+
+    private static final int ACCEPT_BACKLOG = 4096; // the kernel may cap it lower (somaxconn)
+    private static final int MAX_IDLE_CONNECTIONS = 10_000;
+    private static final int ACCESS_LOG_RECORDS = 1 << 13;
+    // /validate bodies up to this size go through the cache, which lexes the whole query first;
+    // larger ones (or ones of unknown size) are parsed as they are read, so bad ones fail early
+    private static final long CACHED_BODY_BYTES = 1 << 16;
+
+    // Usage: java com.sqlorb.Server [--port=8000] [--executor=pool|virtual|dispatcher]
+    //            [--max-concurrent=N] [--max-queued=N] [--retry-after=SECONDS]
+    //            [--log=info|error|off] [--log-sample=N] [--log-sql-chars=N]
+    //            [--max-body-bytes=N]
     public static void main(String[] args) throws IOException
      {
-        int port = 8000;
-        // Create a server that listens on port 8000
-        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        Options options = Options.parse(args);
+        HttpServer server = start(options);
+        
+        System.out.println("Server started!"); 
+        System.out.println("   Waiting for requests at http://localhost:" + options.port + "/validate");
+        System.out.println("   Executor: " + options.executor + ", " + options.maxConcurrent + " concurrent, "
+                + options.maxQueued + " queued");
+    }
+
+    // Stops a server made by start(): HttpServer.stop() leaves its executor's threads running, so
+    // they are shut down too once the exchanges in progress are done
+    static void stop(HttpServer server, int delaySeconds) {
+        server.stop(delaySeconds);
+        if (server.getExecutor() instanceof RequestExecutor) ((RequestExecutor) server.getExecutor()).shutdown();
+    }
+
+    // Creates and starts the server; options.executor ends up holding the executor in use
+    static HttpServer start(Options options) throws IOException
+    {
+        RequestExecutor executor = new RequestExecutor(options.executor, options.maxConcurrent,
+                options.maxQueued, options.retryAfterSeconds);
+        options.executor = executor.mode();
+
+        // HttpServer closes a keep-alive connection instead of keeping it idle once 200 others are
+        // (read once, at its first use); with more clients than that, they keep reconnecting and
+        // now and then reuse a connection the server just dropped. Idle connections cost no thread.
+        if (System.getProperty("sun.net.httpserver.maxIdleConnections") == null) {
+            System.setProperty("sun.net.httpserver.maxIdleConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+        }
+
+        // Connections must get in to be told 503, so the accept backlog is not tied to the limits
+        HttpServer server = HttpServer.create(new InetSocketAddress(options.port), ACCEPT_BACKLOG);
+
+        // Requests are logged to stdout by a background thread (see AccessLog)
+        AccessLog log = new AccessLog(AccessLog.level(options.logLevel), options.logSample, options.logSqlChars,
+                ACCESS_LOG_RECORDS, new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16));
+
+        Metrics metrics = new Metrics(CACHE, executor, log);
 
         // Create the "/validate" endpoint
-        server.createContext("/validate", new ValidationHandler());
+        // Every context counts its requests first, so the shed filter's 503s are counted too
+        server.createContext("/validate", new ValidationHandler(log, metrics, options.maxBodyBytes)).getFilters()
+                .addAll(List.of(metrics.requestCounter(), executor.shedFilter()));
+        server.createContext("/validate/batch", new BatchHandler(log)).getFilters()
+                .addAll(List.of(metrics.requestCounter(), executor.shedFilter()));
+        server.createContext("/fingerprint", new FingerprintHandler(log, options.maxBodyBytes)).getFilters()
+                .addAll(List.of(metrics.requestCounter(), executor.shedFilter()));
+        // no shed filter: a saturated server still answers scrapes (on the dispatcher thread)
+        server.createContext("/metrics", new MetricsHandler(metrics)).getFilters().add(metrics.requestCounter());
 
-        server.setExecutor(null); // Default executor
+        server.setExecutor(executor.executor()); // null (dispatcher thread) in dispatcher mode
         server.start();
-        
-        System.out.println("Server started!"); 
-        System.out.println("   Waiting for requests at http://localhost:" + port + "/validate");
+        options.port = server.getAddress().getPort();
+        return server;
+    }
+
+    // Command line settings. Validation is CPU bound, so by default twice as many requests run as
+    // there are cores; the queue absorbs bursts, and anything beyond it is answered 503.
+    static final class Options {
+        int port = 8000;
+        String executor = "pool";
+        int maxConcurrent = 2 * Runtime.getRuntime().availableProcessors();
+        int maxQueued = 1024;
+        int retryAfterSeconds = 1;
+        String logLevel = "info";
+        int logSample = 1;      // log one in this many successful requests
+        int logSqlChars = 200;
+        long maxBodyBytes = 32L << 20; // /validate and /fingerprint; larger bodies get 413
+
+        // --name=value pairs; anything else is an IllegalArgumentException
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (!arg.startsWith("--") || eq < 0) throw new IllegalArgumentException("Expected --name=value: " + arg);
+                String value = arg.substring(eq + 1);
+                switch (arg.substring(2, eq)) {
+                    case "port": options.port = Integer.parseInt(value); break;
+                    case "executor": options.executor = value; break;
+                    case "max-concurrent": options.maxConcurrent = Integer.parseInt(value); break;
+                    case "max-queued": options.maxQueued = Integer.parseInt(value); break;
+                    case "retry-after": options.retryAfterSeconds = Integer.parseInt(value); break;
+                    case "log": options.logLevel = value; break;
+                    case "log-sample": options.logSample = Integer.parseInt(value); break;
+                    case "log-sql-chars": options.logSqlChars = Integer.parseInt(value); break;
+                    case "max-body-bytes": options.maxBodyBytes = Long.parseLong(value); break;
+                    default: throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            }
+            return options;
+        }
     }
 
     static class ValidationHandler implements HttpHandler 
     {
+        private final AccessLog log;
+        private final Metrics metrics;
+        private final long maxBodyBytes;
+
+        ValidationHandler(AccessLog log, Metrics metrics, long maxBodyBytes) {
+            this.log = log;
+            this.metrics = metrics;
+            this.maxBodyBytes = maxBodyBytes;
+        }
+
         @Override
         public void handle(HttpExchange exchange) throws IOException 
         {
+            long started = System.nanoTime();
+
             // 1. ADD CORS HEADERS (Crucial for your HTML to work)
             exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
             exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "POST, OPTIONS");
@@ -53,39 +163,81 @@ public class Server {
                 return;
             }
 
-            // 2. READ THE SQL FROM THE REQUEST BODY
-            InputStream is = exchange.getRequestBody();
-            String sqlQuery = new String(is.readAllBytes(), StandardCharsets.UTF_8);
-            
-            System.out.println("Received SQL: " + sqlQuery);
+            // 2. THE SQL IS READ FROM THE REQUEST BODY AS THE LEXER GETS TO IT (see StreamInput)
+            long declared = contentLength(exchange);
+            StreamInput sqlQuery = new StreamInput(exchange.getRequestBody(), maxBodyBytes);
 
             String responseMessage;
             int statusCode;
 
             // 3. RUN THE PARSER LOGIC
             try {
-                Lexer lexer = new Lexer(sqlQuery);
-                List<Token> tokens = lexer.tokenize();
+                if (declared > maxBodyBytes) throw new StreamInput.TooLargeException(maxBodyBytes);
+
+                // The parser pulls tokens from the lexer on demand, so bad input fails fast.
+                // Each handler thread reuses one parser (and its buffers) for all its requests.
+                Parser parser = ParserPool.acquire(sqlQuery);
 
                 // If the client sent only comments / whitespace, the lexer will return only EOF.
                 // Main.java handled this case for interactive use; the HTTP handler must too.
-                if (tokens.size() == 1 && tokens.get(0).type == TokenType.EOF) {
+                if (parser.isEmpty()) {
                     responseMessage = "{\"status\": \"error\", \"message\": \"No SQL provided (empty or comment-only body).\"}";
                     statusCode = 400;
+                } else if (declared < 0 || declared > CACHED_BODY_BYTES) {
+                    // parsed straight off the stream: a bad token stops the read right there. Lexing
+                    // happens as the parser pulls tokens, so this times both (see Metrics).
+                    long streamStarted = System.nanoTime();
+                    try {
+                        parser.parseQuery();
+                    } finally {
+                        metrics.streamTime.record(System.nanoTime() - streamStarted);
+                        metrics.tokens.record(parser.tokens().size());
+                    }
+
+                    responseMessage = "{\"status\": \"success\", \"message\": \"✅ Valid Syntax!\""
+                            + warnings(parser, sqlQuery) + "}";
+                    statusCode = 200; // OK
                 } else {
-                    Parser parser = new Parser(tokens);
-                    parser.parseQuery();
+                    // parses only shapes it has not seen; CACHE.validate(parser), timed by phase
+                    long lexStarted = System.nanoTime();
+                    try {
+                        CACHE.lex(parser);
+                    } finally {
+                        metrics.lexTime.record(System.nanoTime() - lexStarted);
+                        metrics.tokens.record(parser.tokens().size());
+                    }
+                    long parseStarted = System.nanoTime();
+                    try {
+                        CACHE.check(parser);
+                    } finally {
+                        metrics.parseTime.record(System.nanoTime() - parseStarted);
+                    }
 
-                    responseMessage = "{\"status\": \"success\", \"message\": \"✅ Valid Syntax!\"}";
+                    responseMessage = "{\"status\": \"success\", \"message\": \"✅ Valid Syntax!\""
+                            + warnings(parser, sqlQuery) + "}";
                     statusCode = 200; // OK
                 }
                 
             } 
-            catch (Exception e) {
+            catch (SqlSyntaxException e) {
                 // Escape quotes in error message to avoid breaking JSON
-                String cleanError = e.getMessage().replace("\"", "'");
-                responseMessage = "{\"status\": \"error\", \"message\": \"" + cleanError + "\"}";
+                String cleanError = clean(e.getMessage());
+                responseMessage = "{\"status\": \"error\", \"code\": \"" + e.code + "\", \"position\": " + e.position
+                        + ", \"message\": \"" + cleanError + "\"}";
                 statusCode = 400; // Bad Request
+                metrics.error(e);
+            }
+            catch (StreamInput.TooLargeException e) {
+                responseMessage = tooLarge(e);
+                statusCode = 413; // Payload Too Large
+            }
+            catch (UncheckedIOException e) {
+                throw e.getCause(); // the client went away mid-body, as readAllBytes would have thrown
+            }
+            catch (RuntimeException e) {
+                // Not a verdict on the SQL: a bug in the checker itself
+                responseMessage = "{\"status\": \"error\", \"message\": \"Internal error: " + clean(String.valueOf(e)) + "\"}";
+                statusCode = 500;
             }
 
             // 4. SEND RESPONSE BACK
@@ -96,6 +248,294 @@ public class Server {
             OutputStream os = exchange.getResponseBody();
             os.write(responseBytes);
             os.close();
+
+            long elapsed = System.nanoTime() - started;
+            metrics.totalTime.record(elapsed);
+            metrics.bodyBytes.record(sqlQuery.bytesRead());
+            log.log(statusCode >= 500 ? AccessLog.Level.ERROR : AccessLog.Level.INFO, "/validate", statusCode,
+                    elapsed, sqlQuery.bytesRead(), sqlQuery.decodedPrefix());
+        }
+
+        // ", \"warnings\": [...]" for lexer diagnostics, or nothing when the input was clean
+        static String warnings(Parser parser, CharSequence sql) {
+            if (parser.diagnostics().isEmpty()) return "";
+            StringBuilder sb = new StringBuilder(", \"warnings\": [");
+            for (Diagnostic d : parser.diagnostics()) {
+                if (sb.charAt(sb.length() - 1) != '[') sb.append(", ");
+                sb.append("{\"code\": \"").append(d.code)
+                  .append("\", \"position\": ").append(d.position)
+                  .append(", \"message\": \"").append(clean(d.message(sql))).append("\"}");
+            }
+            return sb.append("]").toString();
+        }
+    }
+
+    // "/validate/batch": many statements in one request, as a JSON array or NDJSON (see BatchReader).
+    // They are validated on the common ForkJoinPool, and each result is sent as one NDJSON line
+    // (chunked) as soon as it is ready, so lines come in completion order; "id" and "index" tie
+    // them to the statements. At most BATCH_WINDOW statements are in flight at a time, so memory
+    // stays bounded however long the batch is.
+    static class BatchHandler implements HttpHandler
+    {
+        static final int MAX_STATEMENT_CHARS = 1 << 20;
+        static final int BATCH_WINDOW = 16 * ForkJoinPool.getCommonPoolParallelism();
+
+        private final AccessLog log;
+
+        BatchHandler(AccessLog log) {
+            this.log = log;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            long started = System.nanoTime();
+
+            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "POST, OPTIONS");
+            exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
+
+            if (exchange.getRequestMethod().equalsIgnoreCase("OPTIONS")) {
+                exchange.sendResponseHeaders(204, -1);
+                exchange.getResponseBody().close();
+                return;
+            }
+            if (!exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+                exchange.sendResponseHeaders(405, -1);
+                exchange.getResponseBody().close();
+                return;
+            }
+
+            BatchReader reader = new BatchReader(
+                    new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), MAX_STATEMENT_CHARS);
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            exchange.sendResponseHeaders(200, 0); // chunked: the length is not known up front
+
+            LinkedBlockingQueue<String> results = new LinkedBlockingQueue<>();
+            int inFlight = 0;
+            try (OutputStream os = exchange.getResponseBody()) {
+                BatchReader.Item item;
+                while ((item = reader.next()) != null) {
+                    while (inFlight == BATCH_WINDOW) {
+                        write(os, results.take());
+                        inFlight--;
+                    }
+                    if (item.sql == null) {
+                        write(os, result(item, null, null, null));
+                    } else {
+                        BatchReader.Item statement = item;
+                        ForkJoinPool.commonPool().execute(() -> {
+                            String line = null;
+                            try {
+                                line = validate(statement);
+                            } finally { // an Error must not leave us waiting for this line forever
+                                results.add(line != null ? line : result(statement, "error", null, "Internal error"));
+                            }
+                        });
+                        inFlight++;
+                    }
+                    // send what is ready before waiting for more input
+                    boolean wrote = false;
+                    for (String line; (line = results.poll()) != null; inFlight--) {
+                        write(os, line);
+                        wrote = true;
+                    }
+                    if (wrote) os.flush();
+                }
+                for (; inFlight > 0; inFlight--) {
+                    write(os, results.take());
+                    if (results.isEmpty()) os.flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while streaming batch results", e);
+            }
+            log.log(AccessLog.Level.INFO, "/validate/batch", 200, System.nanoTime() - started, -1, null);
+        }
+
+        // One statement's result line; runs on the pool
+        private static String validate(BatchReader.Item item) {
+            try {
+                Parser parser = ParserPool.acquire(item.sql);
+                if (parser.isEmpty()) return result(item, "error", null, "No SQL provided (empty or comment-only statement).");
+                CACHE.validate(parser);
+                return result(item, "success", ValidationHandler.warnings(parser, item.sql), null);
+            }
+            catch (SqlSyntaxException e) {
+                return result(item, "error", ", \"code\": \"" + e.code + "\", \"position\": " + e.position, clean(e.getMessage()));
+            }
+            catch (RuntimeException e) {
+                return result(item, "error", null, "Internal error: " + clean(String.valueOf(e)));
+            }
+        }
+
+        // {"id": ..., "index": n, "status": ...[fields][, "message": ...]}; status null means item.error
+        private static String result(BatchReader.Item item, String status, String fields, String message) {
+            if (status == null) {
+                status = "error";
+                message = clean(item.error);
+            }
+            return "{\"id\": " + item.id + ", \"index\": " + item.index + ", \"status\": \"" + status + "\""
+                    + (fields != null ? fields : "")
+                    + (message != null ? ", \"message\": \"" + message + "\"" : "") + "}\n";
+        }
+
+        private static void write(OutputStream os, String line) throws IOException {
+            os.write(line.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // "/fingerprint": the literal-insensitive fingerprint of the posted SQL (see Fingerprint), and its
+    // canonical text unless the query string says text=0
+    static class FingerprintHandler implements HttpHandler
+    {
+        private final AccessLog log;
+        private final long maxBodyBytes;
+
+        FingerprintHandler(AccessLog log, long maxBodyBytes) {
+            this.log = log;
+            this.maxBodyBytes = maxBodyBytes;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            long started = System.nanoTime();
+
+            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "POST, OPTIONS");
+            exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
+
+            if (exchange.getRequestMethod().equalsIgnoreCase("OPTIONS")) {
+                exchange.sendResponseHeaders(204, -1);
+                exchange.getResponseBody().close();
+                return;
+            }
+            if (!exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+                exchange.sendResponseHeaders(405, -1);
+                exchange.getResponseBody().close();
+                return;
+            }
+
+            long declared = contentLength(exchange);
+            StreamInput sqlQuery = new StreamInput(exchange.getRequestBody(), maxBodyBytes);
+            String query = exchange.getRequestURI().getRawQuery();
+            boolean withText = query == null || !("&" + query + "&").contains("&text=0&");
+
+            String responseMessage;
+            int statusCode;
+            try {
+                if (declared > maxBodyBytes) throw new StreamInput.TooLargeException(maxBodyBytes);
+                TokenBuffer tokens = new Lexer(sqlQuery).tokenize(tokens());
+                Fingerprint fingerprint = tokens.fingerprint();
+                responseMessage = "{\"status\": \"success\", \"fingerprint\": \"" + fingerprint
+                        + "\", \"hash64\": \"" + String.format("%016x", fingerprint.hash64()) + "\""
+                        + (withText ? ", \"text\": \"" + clean(tokens.canonicalText()) + "\"" : "") + "}";
+                statusCode = 200;
+            }
+            catch (SqlSyntaxException e) {
+                responseMessage = "{\"status\": \"error\", \"code\": \"" + e.code + "\", \"position\": " + e.position
+                        + ", \"message\": \"" + clean(e.getMessage()) + "\"}";
+                statusCode = 400;
+            }
+            catch (StreamInput.TooLargeException e) {
+                responseMessage = tooLarge(e);
+                statusCode = 413;
+            }
+            catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            byte[] responseBytes = responseMessage.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(statusCode, responseBytes.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(responseBytes);
+            os.close();
+
+            log.log(AccessLog.Level.INFO, "/fingerprint", statusCode, System.nanoTime() - started,
+                    sqlQuery.bytesRead(), sqlQuery.decodedPrefix());
+        }
+
+        // One token buffer per handler thread, folding the fingerprint as the lexer fills it. Like
+        // ParserPool, a buffer grown on an unusually large query is not kept.
+        private static final ThreadLocal<TokenBuffer> TOKENS = new ThreadLocal<>();
+
+        private static TokenBuffer tokens() {
+            TokenBuffer tokens = TOKENS.get();
+            if (tokens == null || tokens.capacity() > ParserPool.MAX_RETAINED_TOKENS) {
+                tokens = new TokenBuffer();
+                tokens.setFingerprinting(true);
+                TOKENS.set(tokens);
+            }
+            return tokens;
+        }
+    }
+
+    // s as a JSON string literal, escaped exactly (unlike clean(), which is for messages)
+    static String quote(CharSequence s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    // The declared Content-Length, or -1 (chunked, or missing or unreadable)
+    static long contentLength(HttpExchange exchange) {
+        String value = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // The 413 answer to a body over the limit, whether declared or found out while reading
+    static String tooLarge(StreamInput.TooLargeException e) {
+        return "{\"status\": \"error\", \"message\": \"Request body larger than " + e.maxBytes + " bytes.\"}";
+    }
+
+    // "/metrics": Prometheus text format (see Metrics)
+    static class MetricsHandler implements HttpHandler
+    {
+        private final Metrics metrics;
+
+        MetricsHandler(Metrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                exchange.getResponseBody().close();
+                return;
+            }
+            byte[] responseBytes = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, responseBytes.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(responseBytes);
+            os.close();
+        }
+    }
+
+    // Makes a message safe inside a JSON string: quotes become ', backslashes and control chars are escaped
+    static String clean(String message) {
+        StringBuilder sb = new StringBuilder(message.length());
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c == '"') sb.append('\'');
+            else if (c == '\\') sb.append("\\\\");
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
         }
+        return sb.toString();
     }
 }
\ No newline at end of file
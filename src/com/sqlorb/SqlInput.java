@@ -0,0 +1,40 @@
+package com.sqlorb;
+
+// Character input that is decoded incrementally instead of being held as one String
+// (memory-mapped files, byte buffers). Offsets are UTF-16 char indexes, like String's;
+// byteOffset/line/column translate them back to the raw input for error reporting.
+public interface SqlInput extends CharSequence {
+
+    // True if a char exists at index, decoding ahead as far as needed. Unlike length(),
+    // this never has to look at the rest of the input.
+    boolean has(int index);
+
+    long byteOffset(int index);
+
+    int line(int index);   // 1-based, lines end at '\n'
+
+    int column(int index); // 1-based, counted in chars
+
+    // Index of the first a or b at or after from, or -1 if the input ends first. The lexer skips
+    // comments and string bodies with this; implementations can search their buffers directly.
+    default int indexOf(char a, char b, int from) {
+        for (int i = Math.max(from, 0); has(i); i++) {
+            char c = charAt(i);
+            if (c == a || c == b) return i;
+        }
+        return -1;
+    }
+
+    // Whether messages should add line, column and byte to positions; false for inputs that stand
+    // in for a String, so their messages read exactly as the String's would
+    default boolean describesPositions() {
+        return true;
+    }
+
+    // "17" for plain strings, "17 (line 2, column 5, byte 19)" for incremental inputs
+    static String describe(CharSequence source, int index) {
+        if (!(source instanceof SqlInput) || !((SqlInput) source).describesPositions()) return String.valueOf(index);
+        SqlInput in = (SqlInput) source;
+        return index + " (line " + in.line(index) + ", column " + in.column(index) + ", byte " + in.byteOffset(index) + ")";
+    }
+}
@@ -0,0 +1,10 @@
+package com.sqlorb;
+
+// The lexer could not turn the input into tokens (e.g. an unterminated string)
+public class SqlLexicalException extends SqlSyntaxException {
+    private static final long serialVersionUID = 1L;
+
+    public SqlLexicalException(Code code, int tokenIndex, int position, CharSequence source, String detail) {
+        super(code, tokenIndex, position, source, null, detail);
+    }
+}
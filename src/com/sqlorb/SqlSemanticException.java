@@ -0,0 +1,10 @@
+package com.sqlorb;
+
+// The query parses but breaks a rule about aggregates (aggregate in WHERE, GROUP BY / HAVING coverage)
+public class SqlSemanticException extends SqlSyntaxException {
+    private static final long serialVersionUID = 1L;
+
+    public SqlSemanticException(Code code, String detail) {
+        super(code, -1, -1, null, null, detail);
+    }
+}
@@ -0,0 +1,106 @@
+package com.sqlorb;
+
+// A rejected query. Invalid input is a normal outcome for a validator, so these are cheap to throw:
+// no stack trace is captured and the message is only rendered when someone calls getMessage().
+// Callers can switch on code and use tokenIndex / position instead of parsing the message.
+//
+// Subclasses: SqlLexicalException (the lexer could not tokenize the input) and
+// SqlSemanticException (well-formed, but breaks a GROUP BY / HAVING / aggregate rule).
+public class SqlSyntaxException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    // Message templates: %p = position, %t = token text, %T = token text in upper case, %d = detail
+    public enum Code {
+        // lexical
+        UNTERMINATED_STRING("Error at position %p: Unterminated column name/string starting with %d"),
+
+        // syntax
+        EXPECTED_TOKEN("Syntax Error at position %p: Expected %d but found '%t'."),
+        EXPECTED_NAME("Syntax Error at position %p: Expected a Column or Table name, but found '%t'."),
+        WHERE_BEFORE_FROM("Syntax Error at position %p: Found 'WHERE' before 'FROM'. The FROM clause must come before WHERE."),
+        TRAILING_TEXT("Error at position %p: Unexpected text '%t' after the query ended."),
+        UNEXPECTED_TOKEN("Error at position %p: Unexpected token '%t' in expression."),
+        MISSING_COMMA("Error at position %p: Missing COMMA between column names '%d' and '%t'."),
+        MISSING_ALIAS("Error at position %p: Expected alias after AS."),
+        LIMIT_NOT_NUMERIC("Syntax Error: LIMIT requires a numeric value"),
+        GROUP_BY_EMPTY("Syntax Error: Expected column, expression, or ordinal after GROUP BY"),
+        WITH_WITHOUT_ROLLUP("Syntax Error: WITH must be followed by ROLLUP"),
+        GROUP_BY_ORDINAL("Syntax Error: GROUP BY ordinal must be >= 1"),
+        ORDER_BY_ORDINAL("Syntax Error: ORDER BY ordinal must be >= 1"),
+        NOT_AN_INTEGER("For input string: \"%t\""), // ordinal like 1.5 (same text as Integer.parseInt's error)
+        NULLS_WITHOUT_FIRST_LAST("Syntax Error: NULLS must be followed by FIRST or LAST"),
+        COLLATE_WITHOUT_NAME("Syntax Error: COLLATE requires a collation name"),
+        BETWEEN_WITHOUT_AND("Syntax Error: BETWEEN requires AND keyword"),
+        LIKE_WITHOUT_STRING("Syntax Error: LIKE requires a string pattern"),
+        IS_WITHOUT_NULL("Syntax Error: Expected NULL after IS%d"),
+        IN_WITHOUT_PAREN("Syntax Error: Expected '(' after IN"),
+        EMPTY_IN_LIST("Syntax Error: IN list cannot be empty"),
+        IN_LIST_TOO_LONG("Error at position %p: IN list has more than %d elements"),
+        AGGREGATE_WITHOUT_PARENS("Syntax Error: Aggregate/function '%T' used without parentheses"),
+        FUNCTION_WITHOUT_ARGUMENTS("Syntax Error: Function '%T' requires arguments"),
+        STAR_ARGUMENT("Invalid use of '*' with function '%T'"),
+        DISTINCT_NOT_AGGREGATE("DISTINCT can only be used with aggregate functions"),
+        TOO_DEEP("Error at position %p: Expression nested more than %d levels deep"),
+
+        // semantic
+        AGGREGATE_IN_WHERE("Invalid use of aggregate function in WHERE clause"),
+        GROUP_BY_RULE("GROUP BY rule violation: Column '%d' must appear in GROUP BY or be used in an aggregate function."),
+        HAVING_RULE("HAVING rule violation: Column '%d' must appear in GROUP BY or be used in an aggregate function.");
+
+        final String template;
+
+        Code(String template) {
+            this.template = template;
+        }
+    }
+
+    public final Code code;
+    public final int tokenIndex; // offending token in the parser's token buffer, -1 if none
+    public final int position;   // char offset into the source, -1 if the error has no single place
+
+    private final CharSequence source;
+    private final Token token;   // offending token, for %t / %T
+    private final String detail;
+    private String message;
+
+    public SqlSyntaxException(Code code, int tokenIndex, int position, CharSequence source, Token token, String detail) {
+        super(null, null, false, false); // no stack trace, no suppressed exceptions
+        this.code = code;
+        this.tokenIndex = tokenIndex;
+        this.position = position;
+        this.source = source;
+        this.token = token;
+        this.detail = detail;
+    }
+
+    // The %d part of the message (expected token, column name, limit), or null
+    String detail() {
+        return detail;
+    }
+
+    @Override
+    public String getMessage() {
+        if (message == null) message = render();
+        return message;
+    }
+
+    private String render() {
+        String template = code.template;
+        StringBuilder sb = new StringBuilder(template.length() + 32);
+        for (int i = 0; i < template.length(); i++) {
+            char c = template.charAt(i);
+            if (c != '%' || i + 1 == template.length()) {
+                sb.append(c);
+                continue;
+            }
+            switch (template.charAt(++i)) {
+                case 'p': sb.append(SqlInput.describe(source, position)); break;
+                case 't': sb.append(token != null ? token.value() : ""); break;
+                case 'T': sb.append(token != null ? token.value().toUpperCase() : ""); break;
+                case 'd': sb.append(detail != null ? detail : ""); break;
+                default: sb.append('%').append(template.charAt(i));
+            }
+        }
+        return sb.toString();
+    }
+}
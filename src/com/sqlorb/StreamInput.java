@@ -0,0 +1,286 @@
+package com.sqlorb;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Input read from a stream as the lexer asks for it, for request bodies:
+//
+//     Parser parser = ParserPool.acquire(new StreamInput(exchange.getRequestBody(), maxBytes));
+//
+// Nothing is read up front, so a query whose first token is wrong is rejected after the first few
+// KB of the body, and reading stops there. The byte limit is checked as bytes arrive: the read that
+// would pass it throws TooLargeException instead, whatever the Content-Length said.
+//
+// Raw input goes through one small buffer that is refilled in place. Decoded chars are kept, since
+// token text, diagnostics and error messages point back into them, but in blocks that hold one byte
+// per char until a char above U+00FF shows up in them; for ASCII SQL that is half a String's worth
+// of chars and none of the byte[] + String copies of reading the whole body first. Malformed UTF-8
+// decodes to U+FFFD, as new String(bytes, UTF_8) does.
+//
+// Positions in messages read as they would for the same text in a String (see describesPositions).
+// Not thread-safe.
+public final class StreamInput implements SqlInput {
+    private static final int BLOCK_SHIFT = 14;
+    private static final int BLOCK = 1 << BLOCK_SHIFT;
+    private static final int READ_CHARS = 8192;
+
+    // The body went past its limit; stackless, like SqlSyntaxException
+    public static final class TooLargeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public final long maxBytes;
+
+        TooLargeException(long maxBytes) {
+            super("Request body larger than " + maxBytes + " bytes", null, false, false);
+            this.maxBytes = maxBytes;
+        }
+    }
+
+    private final Reader in;
+    private final Limited limited; // null when reading chars from a Reader
+    private final char[] buffer = new char[READ_CHARS];
+
+    private byte[][] latin = new byte[4][]; // block k in one byte per char, or null
+    private char[][] wide = new char[4][];  // block k as chars once it needed them
+    private int decoded;                    // chars read so far
+    private boolean eof;
+
+    // UTF-8 bytes; reading more than maxBytes of them throws TooLargeException
+    public StreamInput(InputStream in, long maxBytes) {
+        this.limited = new Limited(in, maxBytes);
+        this.in = new InputStreamReader(limited, StandardCharsets.UTF_8);
+    }
+
+    public StreamInput(Reader in) {
+        this.limited = null;
+        this.in = in;
+    }
+
+    @Override
+    public boolean has(int index) {
+        if (index < decoded) return true;
+        if (index < 0) return false;
+        while (decoded <= index && !eof) read();
+        return index < decoded;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (!has(index)) throw new IndexOutOfBoundsException("index " + index);
+        byte[] bytes = latin[index >>> BLOCK_SHIFT];
+        return bytes != null ? (char) (bytes[index & (BLOCK - 1)] & 0xFF) : wide[index >>> BLOCK_SHIFT][index & (BLOCK - 1)];
+    }
+
+    // Reads the rest of the input
+    @Override
+    public int length() {
+        while (!eof) read();
+        return decoded;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end < start || (end > start && !has(end - 1))) {
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + ")");
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) sb.append(charAt(i));
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length()).toString();
+    }
+
+    @Override
+    public int indexOf(char a, char b, int from) {
+        for (int i = Math.max(from, 0); has(i); i++) {
+            int block = i >>> BLOCK_SHIFT;
+            int end = Math.min((block + 1) << BLOCK_SHIFT, decoded);
+            byte[] bytes = latin[block];
+            if (bytes != null) {
+                if (a > 0xFF && b > 0xFF) { // cannot be in this block
+                    i = end - 1;
+                    continue;
+                }
+                for (; i < end; i++) {
+                    char c = (char) (bytes[i & (BLOCK - 1)] & 0xFF);
+                    if (c == a || c == b) return i;
+                }
+            } else {
+                char[] chars = wide[block];
+                for (; i < end; i++) {
+                    char c = chars[i & (BLOCK - 1)];
+                    if (c == a || c == b) return i;
+                }
+            }
+            i--; // the loop's i++ moves to the next block
+        }
+        return -1;
+    }
+
+    // Positions stay plain char offsets in messages, as for the body read into a String
+    @Override
+    public boolean describesPositions() {
+        return false;
+    }
+
+    // Only for messages: counted from the start each time
+    @Override
+    public long byteOffset(int index) {
+        long bytes = 0;
+        for (int i = 0; i < index && has(i); i++) {
+            char c = charAt(i);
+            if (c < 0x80) bytes += 1;
+            else if (c < 0x800) bytes += 2;
+            else if (Character.isHighSurrogate(c) && has(i + 1) && Character.isLowSurrogate(charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else bytes += 3;
+        }
+        return bytes;
+    }
+
+    @Override
+    public int line(int index) {
+        int line = 1;
+        for (int i = 0; i < index && has(i); i++) {
+            if (charAt(i) == '\n') line++;
+        }
+        return line;
+    }
+
+    @Override
+    public int column(int index) {
+        int column = 1;
+        for (int i = index - 1; i >= 0 && has(i) && charAt(i) != '\n'; i--) column++;
+        return column;
+    }
+
+    // Chars decoded so far; unlike length(), reads nothing
+    public int decoded() {
+        return decoded;
+    }
+
+    // The chars decoded so far, as a view that never reads further (for logging what was seen)
+    public CharSequence decodedPrefix() {
+        int length = decoded;
+        return new CharSequence() {
+            @Override
+            public int length() {
+                return length;
+            }
+
+            @Override
+            public char charAt(int index) {
+                if (index >= length) throw new IndexOutOfBoundsException("index " + index);
+                return StreamInput.this.charAt(index);
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                if (end > length) throw new IndexOutOfBoundsException("end " + end);
+                return StreamInput.this.subSequence(start, end);
+            }
+
+            @Override
+            public String toString() {
+                return subSequence(0, length).toString();
+            }
+        };
+    }
+
+    // Bytes read from the stream so far (-1 when reading from a Reader)
+    public long bytesRead() {
+        return limited != null ? limited.count : -1;
+    }
+
+    // Appends the next read's chars to the blocks
+    private void read() {
+        int n;
+        try {
+            n = in.read(buffer);
+        } catch (Limited.Exceeded e) {
+            throw new TooLargeException(limited.max);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (n < 0) {
+            eof = true;
+            return;
+        }
+        for (int i = 0; i < n; ) {
+            int block = decoded >>> BLOCK_SHIFT;
+            int offset = decoded & (BLOCK - 1);
+            if (block == latin.length) {
+                latin = Arrays.copyOf(latin, block * 2);
+                wide = Arrays.copyOf(wide, block * 2);
+            }
+            if (offset == 0) latin[block] = new byte[BLOCK];
+            int count = Math.min(n - i, BLOCK - offset);
+            byte[] bytes = latin[block];
+            for (int k = 0; k < count; k++) {
+                char c = buffer[i + k];
+                if (bytes != null && c > 0xFF) { // this block needs two bytes per char from now on
+                    char[] chars = new char[BLOCK];
+                    for (int j = 0; j < offset + k; j++) chars[j] = (char) (bytes[j] & 0xFF);
+                    wide[block] = chars;
+                    latin[block] = bytes = null;
+                }
+                if (bytes != null) bytes[offset + k] = (byte) c;
+                else wide[block][offset + k] = c;
+            }
+            i += count;
+            decoded += count;
+        }
+    }
+
+    // Counts bytes and refuses to go past max
+    private static final class Limited extends FilterInputStream {
+        static final class Exceeded extends IOException {
+            private static final long serialVersionUID = 1L;
+
+            Exceeded() {
+                super(null, null);
+            }
+
+            // Stackless like TooLargeException; IOException has no constructor that skips the trace
+            @Override
+            public synchronized Throwable fillInStackTrace() {
+                return this;
+            }
+        }
+
+        final long max;
+        long count;
+
+        Limited(InputStream in, long max) {
+            super(in);
+            this.max = max;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            // ask for one byte past the limit, so a body of exactly max bytes still fits
+            int n = super.read(b, off, max - count < len ? (int) (max - count + 1) : len);
+            if (n > 0) {
+                count += n;
+                if (count > max) throw new Exceeded();
+            }
+            return n;
+        }
+    }
+}
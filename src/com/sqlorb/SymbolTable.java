@@ -0,0 +1,133 @@
+package com.sqlorb;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+// Interns case-folded identifiers to small int ids, so the parser compares names as ints instead of
+// lowercasing strings again and again. ASCII names are folded while hashing, straight from the
+// source characters; only names with other characters (or quoted ones) build a String first.
+//
+// A Parser makes its own table by default. A table from concurrent() can be shared between parsers
+// on different threads; its ids then stay stable for the lifetime of the table.
+public final class SymbolTable {
+    // Reserved ids for the words the GROUP BY / HAVING analysis looks for
+    static final int AS = 0, AND = 1, OR = 2, NOT = 3, IN = 4, BETWEEN = 5, LIKE = 6, IS = 7, NULL = 8, BY = 9;
+    static final int COUNT = 10, SUM = 11, AVG = 12, MIN = 13, MAX = 14;
+    static final int FIRST_NAME = 15; // ids from here on are names seen in queries
+    private static final String[] RESERVED = {
+        "as", "and", "or", "not", "in", "between", "like", "is", "null", "by",
+        "count", "sum", "avg", "min", "max",
+    };
+
+    private final boolean concurrent;
+    private String[] names = new String[32];
+    private int[] hashes = new int[32];
+    private int[] slots = new int[64]; // id + 1, 0 = empty; power of two, at most half full
+    private int size;
+
+    public SymbolTable() {
+        this(false);
+    }
+
+    private SymbolTable(boolean concurrent) {
+        this.concurrent = concurrent;
+        for (String word : RESERVED) intern(word);
+    }
+
+    // A table that may be shared by parsers running on several threads
+    public static SymbolTable concurrent() {
+        return new SymbolTable(true);
+    }
+
+    // True for AND, OR, IS, NULL, ... (and BY), which never name a column
+    static boolean isKeyword(int id) {
+        return id <= BY;
+    }
+
+    static boolean isAggregate(int id) {
+        return id >= COUNT && id <= MAX;
+    }
+
+    // Id of source[start, end) with case folded
+    public int intern(CharSequence source, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c >= 128) return intern(source.subSequence(start, end).toString());
+            h = 31 * h + (c >= 'A' && c <= 'Z' ? c + 32 : c);
+        }
+        if (!concurrent) return find(source, start, end, h);
+        synchronized (this) {
+            return find(source, start, end, h);
+        }
+    }
+
+    public int intern(String name) {
+        String folded = name.toLowerCase(Locale.ROOT);
+        return intern(folded, 0, folded.length(), folded.hashCode());
+    }
+
+    private int intern(String folded, int start, int end, int h) {
+        if (!concurrent) return find(folded, start, end, h);
+        synchronized (this) {
+            return find(folded, start, end, h);
+        }
+    }
+
+    // Case-folded name of id
+    public String name(int id) {
+        if (!concurrent) return names[id];
+        synchronized (this) {
+            return names[id];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int find(CharSequence source, int start, int end, int h) {
+        int mask = slots.length - 1;
+        for (int slot = spread(h) & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (id < 0) return add(source.subSequence(start, end).toString().toLowerCase(Locale.ROOT), h, slot);
+            if (hashes[id] == h && sameName(names[id], source, start, end)) return id;
+        }
+    }
+
+    private static boolean sameName(String name, CharSequence source, int start, int end) {
+        if (name.length() != end - start) return false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = source.charAt(start + i);
+            if (name.charAt(i) != (c >= 'A' && c <= 'Z' ? c + 32 : c)) return false;
+        }
+        return true;
+    }
+
+    private int add(String name, int h, int slot) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        int id = size++;
+        names[id] = name;
+        hashes[id] = h;
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) rehash();
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = spread(hashes[id]) & mask;
+            while (slots[slot] != 0) slot = (slot + 1) & mask;
+            slots[slot] = id + 1;
+        }
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+}
@@ -1,9 +1,10 @@
 package com.sqlorb;
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.List;
 //import java.util.ArrayList;
+import java.io.BufferedReader;
 import java.io.IOException;
 
 public class TestRunner {
@@ -13,9 +14,17 @@ public class TestRunner {
             return;
         }
 
-        List<String> lines = Files.readAllLines(Paths.get(args[0]));
+        // Stream the file line by line so big test files are never held in memory at once
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+            run(reader);
+        }
+    }
+
+    private static void run(BufferedReader reader) throws IOException {
         int lineNo = 0;
-        for (String line : lines) {
+        Parser parser = new Parser(); // reused for every line
+        String line;
+        while ((line = reader.readLine()) != null) {
             lineNo++;
             String trimmed = line.trim();
             if (trimmed.isEmpty() || trimmed.startsWith("--") || trimmed.startsWith("#") || trimmed.startsWith("/*")) {
@@ -24,17 +33,18 @@ public class TestRunner {
 
             System.out.println("Test [" + lineNo + "]: " + line);
             try {
-                Lexer lexer = new Lexer(line);
-                List<Token> tokens = lexer.tokenize();
+                parser.reset(line);
 
-                if (tokens.size() == 1 && tokens.get(0).type == TokenType.EOF) {
+                if (parser.isEmpty()) {
                     System.out.println("  Skipped (no tokens)");
                     continue;
                 }
 
-                Parser parser = new Parser(tokens);
                 parser.parseQuery();
                 System.out.println("  Valid Syntax!");
+                for (Diagnostic d : parser.diagnostics()) {
+                    System.out.println("  Warning: " + d.message(line));
+                }
             } catch (Exception e) {
                 System.out.println("  Error: " + e.getMessage());
             }
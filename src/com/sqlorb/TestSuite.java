@@ -1,17 +1,32 @@
 package com.sqlorb;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class TestSuite {
+    // Cuts after nearly every ';', so every block also checks the chunk merging against ScriptParser
+    private static final ParallelScriptParser PARALLEL = new ParallelScriptParser(ForkJoinPool.commonPool(), 1);
+    private static final List<String> disagreements = new ArrayList<>();
+    // Shared by all cases in file order, so a shape cached by one case is reused by the later ones
+    private static final ValidationCache CACHE = new ValidationCache(1_000);
+
     static class TestCase {
         String sql;
         boolean expectValid;
         int index;
-        TestCase(String s, boolean v, int i){ sql=s; expectValid=v; index=i; }
+        RuntimeException error; // what the checker threw, null if the statement parsed
+        TestCase(String s, boolean v, int i, RuntimeException e){ sql=s; expectValid=v; index=i; error=e; }
     }
 
     public static void main(String[] args) throws Exception {
@@ -22,7 +37,7 @@ public class TestSuite {
         }
 
         List<TestCase> cases = new ArrayList<>();
-        BufferedReader br = new BufferedReader(new FileReader(f));
+        BufferedReader br = new BufferedReader(new FileReader(f, StandardCharsets.UTF_8));
         String line;
         boolean expectValid = true; // default until we see INVALID marker
         StringBuilder current = new StringBuilder();
@@ -31,13 +46,8 @@ public class TestSuite {
             String t = line.trim();
             if (t.isEmpty()) {
                 if (current.length() > 0) {
-                    // split on semicolons to support multiple statements in one block
-                    String block = current.toString().trim();
-                    String[] parts = block.split(";");
-                    for (String p : parts) {
-                        String s = p.trim();
-                        if (!s.isEmpty()) cases.add(new TestCase(s, expectValid, idx++));
-                    }
+                    // a block may hold several statements, separated by semicolons
+                    idx = addStatements(cases, current.toString().trim(), expectValid, idx);
                     current.setLength(0);
                 }
                 continue;
@@ -66,26 +76,16 @@ public class TestSuite {
         }
         br.close();
         if (current.length() > 0) {
-            String block = current.toString().trim();
-            String[] parts = block.split(";");
-            for (String p : parts) {
-                String s = p.trim();
-                if (!s.isEmpty()) cases.add(new TestCase(s, expectValid, idx++));
-            }
+            idx = addStatements(cases, current.toString().trim(), expectValid, idx);
         }
 
         int passed = 0;
         List<String> failures = new ArrayList<>();
         System.out.println("Total cases: " + cases.size());
-
         for (TestCase tc : cases) {
             System.out.println("\n--- Case #" + tc.index + " (expect " + (tc.expectValid?"VALID":"INVALID") + ") ---");
             System.out.println(tc.sql);
-            try {
-                Lexer lexer = new Lexer(tc.sql);
-                List<Token> tokens = lexer.tokenize();
-                Parser parser = new Parser(tokens);
-                parser.parseQuery();
+            if (tc.error == null) {
                 // parsed successfully
                 if (tc.expectValid) {
                     System.out.println("PASS (parsed)");
@@ -94,22 +94,113 @@ public class TestSuite {
                     System.out.println("FAIL — parsed but expected INVALID");
                     failures.add("Case #"+tc.index+": parsed but expected INVALID -> " + tc.sql);
                 }
-            } catch (Exception ex) {
+            } else if (tc.error instanceof SqlSyntaxException) {
                 // parsing failed
+                SqlSyntaxException ex = (SqlSyntaxException) tc.error;
                 if (!tc.expectValid) {
-                    System.out.println("PASS (rejected): " + ex.getMessage());
+                    System.out.println("PASS (rejected, " + ex.code + "): " + ex.getMessage());
                     passed++;
                 } else {
                     System.out.println("FAIL — expected VALID but got error: " + ex.getMessage());
                     failures.add("Case #"+tc.index+": expected VALID but got error: " + ex.getMessage() + " -> " + tc.sql);
                 }
+            } else {
+                // anything else is a checker bug, whatever the expectation
+                System.out.println("FAIL — checker crashed: " + tc.error);
+                failures.add("Case #"+tc.index+": checker crashed: " + tc.error + " -> " + tc.sql);
             }
         }
 
+        checkUtf8();
+        for (String d : disagreements) {
+            System.out.println("\nFAIL — " + d);
+            failures.add(d);
+        }
+
         System.out.println("\nSummary: Passed " + passed + " / " + cases.size());
         if (!failures.isEmpty()) {
             System.out.println("\nFailures:");
             for (String s : failures) System.out.println(s);
         }
     }
+
+    // Validates every statement of a block in one pass (error positions are offsets into the block)
+    private static int addStatements(List<TestCase> cases, String block, boolean expectValid, int idx) {
+        ScriptParser script = new ScriptParser(block);
+        List<String> sequential = new ArrayList<>();
+        try {
+            while (script.next()) {
+                cases.add(new TestCase(script.statement().toString(), expectValid, idx++, script.error()));
+                checkCached(script.statement().toString());
+                sequential.add(describe(script.start(), script.end(), script.error(), script.diagnostics()));
+            }
+        } catch (RuntimeException ex) {
+            cases.add(new TestCase(block, expectValid, idx++, ex));
+            return idx;
+        }
+        List<String> parallel = new ArrayList<>();
+        for (ParallelScriptParser.Statement s : PARALLEL.validate(block)) {
+            parallel.add(describe(s.start(), s.end(), s.error(), s.diagnostics()));
+        }
+        if (!parallel.equals(sequential)) {
+            disagreements.add("ParallelScriptParser " + parallel + " but ScriptParser " + sequential + " -> " + block);
+        }
+        return idx;
+    }
+
+    // The cached verdict must be the one a fresh parser gives. Cases that share a fingerprint with
+    // an earlier one (other literals, or min(b) spelled with a dotless i) get its cached entry.
+    private static void checkCached(String sql) {
+        String parsed = null, cached = null;
+        try {
+            new Parser().reset(sql).parseQuery();
+        } catch (RuntimeException ex) {
+            parsed = ex.toString();
+        }
+        try {
+            CACHE.validate(sql);
+        } catch (RuntimeException ex) {
+            cached = ex.toString();
+        }
+        if (parsed == null ? cached != null : !parsed.equals(cached)) {
+            disagreements.add("ValidationCache " + cached + " but Parser " + parsed + " -> " + sql);
+        }
+    }
+
+    // Malformed UTF-8 must decode from a mapped file (Utf8Input) as it does over HTTP (InputStreamReader)
+    private static void checkUtf8() throws IOException {
+        int[][] cases = {
+            {0x27, 0xC0, 0xA7, 0x27},         // overlong quote
+            {0xE0, 0x80, 0xA7},               // overlong, 3 bytes
+            {0xF0, 0x80, 0x80, 0xA7},         // overlong, 4 bytes
+            {0xED, 0xA0, 0x80},               // encoded surrogate
+            {0xF4, 0x90, 0x80, 0x80},         // past U+10FFFF
+            {0xF5, 0x80, 0x80, 0x80},         // lead byte past U+10FFFF
+            {0xF7, 0xBF, 0xBF, 0xBF},
+            {0xE2, 0x82, 0x27},               // cut-off sequence
+            {0xF4, 0x8F, 0xBF, 0xBF, 0xE2, 0x82, 0xAC}, // U+10FFFF, euro sign
+        };
+        for (int[] c : cases) {
+            byte[] bytes = new byte[c.length];
+            for (int i = 0; i < c.length; i++) bytes[i] = (byte) c[i];
+            StringBuilder http = new StringBuilder();
+            try (Reader reader = new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8)) {
+                for (int ch; (ch = reader.read()) >= 0; ) http.append((char) ch);
+            }
+            String mapped = new Utf8Input(ByteBuffer.wrap(bytes)).toString();
+            if (!mapped.contentEquals(http)) {
+                disagreements.add("Utf8Input " + hex(mapped) + " but InputStreamReader " + hex(http) + " -> " + Arrays.toString(c));
+            }
+        }
+    }
+
+    private static String hex(CharSequence chars) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < chars.length(); i++) sb.append(String.format("%04X ", (int) chars.charAt(i)));
+        return sb.toString().trim();
+    }
+
+    private static String describe(int start, int end, SqlSyntaxException error, List<Diagnostic> diagnostics) {
+        return start + "-" + end + (error == null ? "" : " " + error.getMessage()) + " " + diagnostics;
+    }
 }
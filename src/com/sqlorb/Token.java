@@ -3,19 +3,117 @@ package com.sqlorb;
 public class Token
  {
     public final TokenType type;
-    public final String value;
     public final int position; // To tell user "Error at index 5"
+    public final int end;      // exclusive end offset in the source, or -1 when the value was given eagerly
 
-    public Token(TokenType type, String value, int position) 
+    // A token either carries its value eagerly or only points into the source text;
+    // in the second form the value is built the first time someone asks for it.
+    private final CharSequence source;
+    private String value;
+
+    public Token(TokenType type, String value, int position)
     {
         this.type = type;
         this.value = value;
         this.position = position;
+        this.end = -1;
+        this.source = null;
+    }
+
+    public Token(TokenType type, CharSequence source, int start, int end)
+    {
+        this.type = type;
+        this.source = source;
+        this.position = start;
+        this.end = end;
+    }
+
+    public String value()
+    {
+        if (value == null) {
+            value = text(type, source, position, end);
+        }
+        return value;
+    }
+
+    // Case-insensitive comparison against an ASCII word without materializing the value
+    public boolean is(String word)
+    {
+        if (value != null) return value.equalsIgnoreCase(word);
+        return is(type, source, position, end, word);
+    }
+
+    CharSequence source()
+    {
+        return source;
+    }
+
+    static boolean is(TokenType type, CharSequence source, int start, int end, String word)
+    {
+        if (type == TokenType.STRING || (end > start && source.charAt(start) == '`')) {
+            return text(type, source, start, end).equalsIgnoreCase(word);
+        }
+        if (end - start != word.length()) return false; // also covers EOF
+        for (int i = 0; i < word.length(); i++) {
+            char a = source.charAt(start + i);
+            char b = word.charAt(i);
+            if (a != b && Character.toUpperCase(a) != Character.toUpperCase(b)) return false;
+        }
+        return true;
+    }
+
+    // Token text for source[start, end): quotes are stripped and doubled quotes collapsed
+    // for string literals and quoted identifiers, everything else is the raw slice.
+    static String text(TokenType type, CharSequence source, int start, int end)
+    {
+        if (type == TokenType.EOF || start >= end) return "";
+        char first = source.charAt(start);
+        boolean quoted = (type == TokenType.STRING && (first == '\'' || first == '"'))
+                || (type == TokenType.IDENTIFIER && first == '`');
+        if (!quoted) {
+            return source.subSequence(start, end).toString();
+        }
+
+        // Usually the only quote char left is the closing one, so the value is a plain slice
+        int i = indexOf(source, first, start + 1, end);
+        if (i < 0) return source.subSequence(start + 1, end).toString(); // unterminated `identifier
+        if (i == end - 1) return source.subSequence(start + 1, i).toString();
+
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(source, start + 1, i);
+        while (i < end) {
+            char c = source.charAt(i);
+            if (c == first) {
+                if (i + 1 < end && source.charAt(i + 1) == first) {
+                    sb.append(first);
+                    i += 2;
+                    continue;
+                }
+                break; // closing quote
+            }
+            sb.append(c);
+            i++;
+        }
+        return sb.toString();
+    }
+
+    // First c in source[from, to), or -1. Strings go through String.indexOf, which the JIT compiles
+    // to a vectorized search; it may look past 'to', so callers use it where c is known to be close.
+    static int indexOf(CharSequence source, char c, int from, int to)
+    {
+        if (source instanceof String) {
+            int i = ((String) source).indexOf(c, from);
+            return i < to ? i : -1;
+        }
+        for (int i = from; i < to; i++) {
+            if (source.charAt(i) == c) return i;
+        }
+        return -1;
     }
 
     @Override
-    public String toString() 
+    public String toString()
     {
-        return String.format("Token{%s, '%s', position=%d}", type, value, position);
+        return String.format("Token{%s, '%s', position=%d}", type, value(), position);
     }
-}
\ No newline at end of file
+}
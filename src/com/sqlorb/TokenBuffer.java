@@ -0,0 +1,424 @@
+package com.sqlorb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+// Columnar token storage: one byte (TokenType ordinal) and two ints (start/end offsets) per token
+// instead of one Token object. The arrays grow geometrically and are kept by reset(), so a single
+// buffer can be reused for query after query without allocating.
+public final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private CharSequence source;
+    private byte[] types;
+    private int[] starts;
+    private int[] ends;
+    private String[] values; // only used for tokens copied from eager Token objects
+    private int size;
+
+    // Lexical diagnostics for the current source; only the first MAX_DIAGNOSTICS are kept
+    static final int MAX_DIAGNOSTICS = 100;
+    private List<Diagnostic> diagnostics;
+    private int suppressedDiagnostics;
+
+    // Literal-insensitive fingerprint of the tokens (see Fingerprint): two 64-bit lanes, folded
+    // token by token in add() while fingerprinting is on, so the lexer produces it as it scans
+    private static final int IDENTIFIER = TokenType.IDENTIFIER.ordinal();
+    private static final int EOF = TokenType.EOF.ordinal();
+    private static final long LOW_SEED = 0xcbf29ce484222325L, HIGH_SEED = 0x6a09e667f3bcc908L;
+    private boolean fingerprinting;
+    private long low = LOW_SEED, high = HIGH_SEED;
+    private boolean foldedAll; // lanes cover every token and add() keeps them that way
+
+    public TokenBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TokenBuffer(int capacity) {
+        capacity = Math.max(capacity, 4);
+        types = new byte[capacity];
+        starts = new int[capacity];
+        ends = new int[capacity];
+    }
+
+    // Empties the buffer (keeping its arrays) and points it at a new source text
+    public void reset(CharSequence source) {
+        if (values != null) Arrays.fill(values, 0, size, null);
+        this.source = source;
+        this.size = 0;
+        if (diagnostics != null) diagnostics.clear();
+        suppressedDiagnostics = 0;
+        low = LOW_SEED;
+        high = HIGH_SEED;
+        foldedAll = fingerprinting;
+    }
+
+    public void add(TokenType type, int start, int end) {
+        if (size == types.length) grow();
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+        if (fingerprinting) fold(size - 1);
+    }
+
+    // Keeps the fingerprint up to date as tokens are added (off by default). Without it,
+    // fingerprint() makes one pass over the tokens when asked.
+    public void setFingerprinting(boolean on) {
+        if (on != fingerprinting) foldedAll = false;
+        fingerprinting = on;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Tokens the arrays can hold before growing again
+    int capacity() {
+        return types.length;
+    }
+
+    public CharSequence source() {
+        return source;
+    }
+
+    public List<Diagnostic> diagnostics() {
+        return diagnostics == null ? Collections.emptyList() : Collections.unmodifiableList(diagnostics);
+    }
+
+    // Diagnostics dropped because MAX_DIAGNOSTICS were already recorded (e.g. binary garbage input)
+    public int suppressedDiagnostics() {
+        return suppressedDiagnostics;
+    }
+
+    void report(Diagnostic.Code code, int position, int length) {
+        report(new Diagnostic(code, position, length));
+    }
+
+    private void report(Diagnostic diagnostic) {
+        if (diagnostics == null) diagnostics = new ArrayList<>();
+        if (diagnostics.size() < MAX_DIAGNOSTICS) diagnostics.add(diagnostic);
+        else suppressedDiagnostics++;
+    }
+
+    public TokenType type(int i) {
+        Objects.checkIndex(i, size);
+        return TYPES[types[i]];
+    }
+
+    public int start(int i) {
+        Objects.checkIndex(i, size);
+        return starts[i];
+    }
+
+    public int end(int i) {
+        Objects.checkIndex(i, size);
+        return ends[i];
+    }
+
+    // Token text, built on demand (quotes stripped for strings / quoted identifiers)
+    public String text(int i) {
+        Objects.checkIndex(i, size);
+        if (values != null && values[i] != null) return values[i];
+        return Token.text(TYPES[types[i]], source, starts[i], ends[i]);
+    }
+
+    // Case-insensitive comparison of token i against an ASCII word, without building its text
+    public boolean is(int i, String word) {
+        Objects.checkIndex(i, size);
+        if (values != null && values[i] != null) return values[i].equalsIgnoreCase(word);
+        return Token.is(TYPES[types[i]], source, starts[i], ends[i], word);
+    }
+
+    // Symbol id of token i's text (case-folded), read straight from the source when it is unquoted
+    public int symbol(int i, SymbolTable symbols) {
+        Objects.checkIndex(i, size);
+        if (!textInSource(i)) return symbols.intern(text(i));
+        return symbols.intern(source, starts[i], ends[i]);
+    }
+
+    // Token i's text folded into a running 64-bit hash (start with HASH_SEED), lowercased and with
+    // whitespace left out, so expressions that only differ in case or spacing hash alike
+    public long hash(int i, long h) {
+        Objects.checkIndex(i, size);
+        if (!textInSource(i)) {
+            String text = text(i);
+            return hash(text, 0, text.length(), h);
+        }
+        return hash(source, starts[i], ends[i], h);
+    }
+
+    static final long HASH_SEED = 0xcbf29ce484222325L;
+
+    // True if tokens [aFrom, aTo) and [bFrom, bTo) read the same once lowercased and stripped of
+    // whitespace, the form hash() folds; confirms a hash match without building either text
+    public boolean sameText(int aFrom, int aTo, int bFrom, int bTo) {
+        int b = bFrom;
+        CharSequence bText = null;
+        int bPos = 0, bEnd = 0;
+        for (int a = aFrom; a < aTo; a++) {
+            CharSequence aText = textInSource(a) ? source : text(a);
+            int aEnd = textInSource(a) ? ends[a] : aText.length();
+            for (int aPos = textInSource(a) ? starts[a] : 0; aPos < aEnd; aPos++) {
+                char c = aText.charAt(aPos);
+                if (isSpace(c)) continue;
+                char d;
+                while (true) { // next char of b that is not whitespace
+                    if (bPos < bEnd) {
+                        d = bText.charAt(bPos++);
+                        if (!isSpace(d)) break;
+                        continue;
+                    }
+                    if (b == bTo) return false;
+                    bText = textInSource(b) ? source : text(b);
+                    bPos = textInSource(b) ? starts[b] : 0;
+                    bEnd = textInSource(b) ? ends[b] : bText.length();
+                    b++;
+                }
+                if (Character.toLowerCase(c) != Character.toLowerCase(d)) return false;
+            }
+        }
+        while (true) { // whatever is left of b must be whitespace
+            if (bPos < bEnd) {
+                if (!isSpace(bText.charAt(bPos++))) return false;
+                continue;
+            }
+            if (b == bTo) return true;
+            bText = textInSource(b) ? source : text(b);
+            bPos = textInSource(b) ? starts[b] : 0;
+            bEnd = textInSource(b) ? ends[b] : bText.length();
+            b++;
+        }
+    }
+
+    // FNV-1a over s[from, to)
+    static long hash(CharSequence s, int from, int to, long h) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (isSpace(c)) continue;
+            h = (h ^ Character.toLowerCase(c)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // The characters the regex \s matches: space, tab, line feed, vertical tab, form feed, carriage return
+    static boolean isSpace(char c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+
+    // False for quoted tokens and eager values, whose text is not a plain slice of the source
+    private boolean textInSource(int i) {
+        return (values == null || values[i] == null) && types[i] != TokenType.STRING.ordinal()
+                && !(ends[i] > starts[i] && source.charAt(starts[i]) == '`');
+    }
+
+    // Fingerprint of the tokens in the buffer: numbers and strings count only as "a number" and
+    // "a string", keywords only by type, identifiers with ASCII case folded; whitespace and
+    // comments never become tokens. So queries that differ only in literals, case, spacing or comments get the
+    // same fingerprint, and queries of different shape (almost surely) do not.
+    public Fingerprint fingerprint() {
+        foldAll();
+        return new Fingerprint(Fingerprint.mix(high), Fingerprint.mix(low));
+    }
+
+    // The low 64 bits of fingerprint(), without allocating
+    public long fingerprint64() {
+        foldAll();
+        return Fingerprint.mix(low);
+    }
+
+    // The tokens fingerprint() covers, as text: keywords in upper case, identifiers in lower case,
+    // numbers as ?, strings as '?', one space between tokens but none inside parentheses, before
+    // a comma or ';', around a '.', or between a function name and its '('
+    public String canonicalText() {
+        StringBuilder sb = new StringBuilder(size * 6);
+        int previous = EOF;
+        for (int i = 0; i < size; i++) {
+            int type = types[i];
+            if (type == EOF) continue;
+            if (sb.length() > 0 && spaced(previous, type)) sb.append(' ');
+            TokenType t = TYPES[type];
+            if (t == TokenType.NUMBER) {
+                sb.append('?');
+            } else if (t == TokenType.STRING) {
+                sb.append("'?'");
+            } else if (Keywords.word(t) != null) {
+                sb.append(Keywords.word(t));
+            } else {
+                CharSequence text = raw(i);
+                for (int k = 0; k < text.length(); k++) sb.append(lowerAscii(text.charAt(k)));
+            }
+            previous = type;
+        }
+        return sb.toString();
+    }
+
+    private static boolean spaced(int previous, int type) {
+        TokenType before = TYPES[previous], after = TYPES[type];
+        if (before == TokenType.LPAREN || before == TokenType.DOT || after == TokenType.DOT) return false;
+        if (after == TokenType.COMMA || after == TokenType.RPAREN || after == TokenType.SEMICOLON) return false;
+        return after != TokenType.LPAREN || (before != TokenType.IDENTIFIER
+                && (before.ordinal() < TokenType.COUNT.ordinal() || before.ordinal() > TokenType.MAX.ordinal()));
+    }
+
+    // Only ASCII letters are folded: names equal up to ASCII case are equal to every rule of the
+    // validator, while wider folding (e.g. of U+0130) does not always agree with SymbolTable's
+    private static char lowerAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+    }
+
+    // Token i's text as written (quotes kept), or its eager value
+    private CharSequence raw(int i) {
+        if (values != null && values[i] != null) return values[i];
+        return source.subSequence(starts[i], ends[i]);
+    }
+
+    private void foldAll() {
+        if (foldedAll) return;
+        low = LOW_SEED;
+        high = HIGH_SEED;
+        for (int i = 0; i < size; i++) fold(i);
+        foldedAll = fingerprinting; // stays up to date from here on only if add() keeps folding
+    }
+
+    // Folds token i into both lanes: its type, and for identifiers their chars with ASCII case
+    // folded (chars are below 0x10000, types above, so the two never mix up)
+    private void fold(int i) {
+        int type = types[i];
+        if (type == EOF) return;
+        long lo = low, hi = high;
+        long unit = 0x10000 + type;
+        lo = (lo ^ unit) * 0x100000001b3L;
+        hi = Long.rotateLeft(hi ^ unit, 29) * 0x9e3779b97f4a7c15L;
+        if (type == IDENTIFIER) {
+            CharSequence text = values != null && values[i] != null ? values[i] : source;
+            int from = text == source ? starts[i] : 0;
+            int to = text == source ? ends[i] : text.length();
+            for (int k = from; k < to; k++) {
+                char c = text.charAt(k);
+                unit = lowerAscii(c);
+                lo = (lo ^ unit) * 0x100000001b3L;
+                hi = Long.rotateLeft(hi ^ unit, 29) * 0x9e3779b97f4a7c15L;
+            }
+        }
+        low = lo;
+        high = hi;
+    }
+
+    // Object view of token i, for callers that still want Token instances
+    public Token token(int i) {
+        Objects.checkIndex(i, size);
+        if (values != null && values[i] != null) return new Token(TYPES[types[i]], values[i], starts[i]);
+        return new Token(TYPES[types[i]], source, starts[i], ends[i]);
+    }
+
+    public List<Token> toList() {
+        List<Token> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) list.add(token(i));
+        return list;
+    }
+
+    // Copies a token list into a buffer; eagerly-valued tokens keep their value as given
+    public static TokenBuffer of(List<Token> tokens) {
+        TokenBuffer buffer = new TokenBuffer(tokens.size());
+        for (Token t : tokens) {
+            if (t.end >= 0 && buffer.source == null) buffer.source = t.source();
+            if (t.end >= 0 && t.source() == buffer.source) {
+                buffer.add(t.type, t.position, t.end);
+                continue;
+            }
+            String value = t.value();
+            buffer.add(t.type, t.position, t.position + value.length());
+            if (buffer.values == null) buffer.values = new String[buffer.types.length];
+            buffer.values[buffer.size - 1] = value;
+        }
+        return buffer;
+    }
+
+    // Replaces tokens [from, to) with the tokens of middle and moves every later token by shift
+    // chars; the buffer then refers to source. Diagnostics in [rescanFrom, rescanTo) of the old text
+    // are replaced by middle's. Used by Lexer.relex().
+    void splice(int from, int to, TokenBuffer middle, int shift, CharSequence source, int rescanFrom, int rescanTo) {
+        if (diagnostics != null || middle.diagnostics != null) {
+            // Kept diagnostics are copied, not reported again, so the suppressed count is carried
+            // over rather than rebuilt. Suppressed ones all lie at or after the last kept one; when
+            // the rescan reaches that tail, middle finds them again and its count replaces the old
+            // one if larger.
+            List<Diagnostic> old = diagnostics == null ? Collections.emptyList() : diagnostics;
+            List<Diagnostic> merged = new ArrayList<>(old.size() + middle.diagnostics().size());
+            for (Diagnostic d : old) {
+                if (d.position < rescanFrom) merged.add(d);
+            }
+            merged.addAll(middle.diagnostics());
+            for (Diagnostic d : old) {
+                if (d.position >= rescanTo) merged.add(new Diagnostic(d.code, d.position + shift, d.length));
+            }
+            int added = middle.suppressedDiagnostics;
+            if (merged.size() > MAX_DIAGNOSTICS) {
+                added += merged.size() - MAX_DIAGNOSTICS;
+                merged.subList(MAX_DIAGNOSTICS, merged.size()).clear();
+            }
+            boolean tailRescanned = suppressedDiagnostics > 0
+                    && (old.isEmpty() || rescanTo > old.get(old.size() - 1).position);
+            suppressedDiagnostics = tailRescanned ? Math.max(suppressedDiagnostics, added) : suppressedDiagnostics + added;
+            if (diagnostics == null) diagnostics = merged;
+            else {
+                diagnostics.clear();
+                diagnostics.addAll(merged);
+            }
+        }
+
+        int tail = size - to;
+        int newSize = from + middle.size + tail;
+        while (types.length < newSize) grow();
+        System.arraycopy(types, to, types, from + middle.size, tail);
+        System.arraycopy(starts, to, starts, from + middle.size, tail);
+        System.arraycopy(ends, to, ends, from + middle.size, tail);
+        if (values != null) System.arraycopy(values, to, values, from + middle.size, tail);
+        for (int i = from + middle.size; i < newSize; i++) {
+            starts[i] += shift;
+            ends[i] += shift;
+        }
+        System.arraycopy(middle.types, 0, types, from, middle.size);
+        System.arraycopy(middle.starts, 0, starts, from, middle.size);
+        System.arraycopy(middle.ends, 0, ends, from, middle.size);
+        if (values != null) {
+            Arrays.fill(values, from, from + middle.size, null);
+            if (newSize < size) Arrays.fill(values, newSize, size, null);
+        }
+        this.size = newSize;
+        this.source = source;
+        foldedAll = false;
+    }
+
+    // Drops tokens [0, n) and the diagnostics before the end of token n - 1; the tokens after them
+    // move down to index 0. Used by ScriptParser to forget the statements it is done with.
+    void discard(int n) {
+        if (n == 0) return;
+        Objects.checkFromToIndex(0, n, size);
+        int end = ends[n - 1];
+        int tail = size - n;
+        System.arraycopy(types, n, types, 0, tail);
+        System.arraycopy(starts, n, starts, 0, tail);
+        System.arraycopy(ends, n, ends, 0, tail);
+        if (values != null) {
+            System.arraycopy(values, n, values, 0, tail);
+            Arrays.fill(values, tail, size, null);
+        }
+        size = tail;
+        foldedAll = false;
+        if (diagnostics != null && !diagnostics.isEmpty()) diagnostics.removeIf(d -> d.position < end);
+    }
+
+    private void grow() {
+        int capacity = types.length + (types.length >> 1) + 1;
+        types = Arrays.copyOf(types, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        if (values != null) values = Arrays.copyOf(values, capacity);
+    }
+}
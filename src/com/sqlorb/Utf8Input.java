@@ -0,0 +1,325 @@
+package com.sqlorb;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// UTF-8 input read straight from a ByteBuffer or a memory-mapped file. Only a fixed-size window of
+// decoded chars is kept on the heap, so lexing a multi-GB dump costs the same memory as a small one.
+//
+// Decoding is incremental and sequential (ASCII bytes are copied without any decoding work). Going
+// back to chars that already left the window re-decodes from the nearest checkpoint; the lexer never
+// does that and the parser only does it for token text that is far behind the current token.
+public final class Utf8Input implements SqlInput {
+    private static final int WINDOW = 1 << 16;      // decoded chars kept in memory
+    private static final int KEEP = WINDOW / 4;     // chars kept behind the requested one when sliding
+    private static final int CHECKPOINT_SHIFT = 20; // at most one checkpoint per 1M chars
+    private static final int REGION_SHIFT = 30;     // files are mapped in 1 GB regions
+    private static final int SCRATCH = 8192;
+
+    // Reads 8 scratch bytes as one long, so ASCII runs are found 8 bytes per step (SWAR)
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private final ByteBuffer[] regions;
+    private final int regionShift;
+    private final long byteLength;
+
+    private final char[] window = new char[WINDOW];
+    private final int[] byteDelta = new int[WINDOW]; // byte offset of window[j] minus windowByte
+    private int windowStart;  // char index of window[0]
+    private int windowLength;
+    private long windowByte;  // byte offset of window[0]
+    private int windowLine = 1;
+    private int windowColumn = 1;
+    private long nextByte;    // first byte not decoded yet (belongs to char windowStart + windowLength)
+    private int totalChars = -1;
+
+    // (char index, byte offset, line, column) at clean char boundaries, to re-decode backwards
+    private int[] checkpointChar = new int[16];
+    private long[] checkpointByte = new long[16];
+    private int[] checkpointLine = new int[16];
+    private int[] checkpointColumn = new int[16];
+    private int checkpoints = 1; // checkpoint 0 is the start of the input
+
+    private final byte[] scratch = new byte[SCRATCH];
+
+    // Reads bytes from the buffer's position to its limit; the buffer itself is not modified
+    public Utf8Input(ByteBuffer bytes) {
+        this(new ByteBuffer[] { bytes.slice() }, 31, bytes.remaining());
+    }
+
+    private Utf8Input(ByteBuffer[] regions, int regionShift, long byteLength) {
+        this.regions = regions;
+        this.regionShift = regionShift;
+        this.byteLength = byteLength;
+        checkpointLine[0] = 1;
+        checkpointColumn[0] = 1;
+    }
+
+    // Maps the whole file read-only; nothing is read onto the heap until the lexer asks for it
+    public static Utf8Input map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int count = (int) ((size + (1L << REGION_SHIFT) - 1) >>> REGION_SHIFT);
+            ByteBuffer[] regions = new ByteBuffer[Math.max(count, 1)];
+            if (count == 0) regions[0] = ByteBuffer.allocate(0);
+            for (int i = 0; i < count; i++) {
+                long offset = (long) i << REGION_SHIFT;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(1L << REGION_SHIFT, size - offset));
+            }
+            return new Utf8Input(regions, REGION_SHIFT, size);
+        }
+    }
+
+    @Override
+    public boolean has(int index) {
+        if (index < 0) return false;
+        if (index < windowStart + windowLength) return true;
+        return ensure(index);
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < windowStart || index >= windowStart + windowLength) {
+            if (index < 0 || !ensure(index)) throw new IndexOutOfBoundsException("index " + index);
+        }
+        return window[index - windowStart];
+    }
+
+    // Total number of chars. This has to decode the whole input, so the lexer uses has() instead.
+    @Override
+    public int length() {
+        if (totalChars < 0) {
+            Utf8Input counter = new Utf8Input(regions, regionShift, byteLength);
+            counter.ensure(Integer.MAX_VALUE - 1);
+            totalChars = counter.totalChars;
+        }
+        return totalChars;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end < start || (end > start && !has(end - 1))) {
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + ")");
+        }
+        if (start >= windowStart && end <= windowStart + windowLength) {
+            return new String(window, start - windowStart, end - start);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) sb.append(charAt(i));
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length()).toString();
+    }
+
+    // Searches the decoded window with a plain array loop, decoding further only when it runs out
+    @Override
+    public int indexOf(char a, char b, int from) {
+        int i = Math.max(from, 0);
+        while (has(i)) {
+            char[] w = window;
+            int n = windowLength;
+            for (int j = i - windowStart; j < n; j++) {
+                char c = w[j];
+                if (c == a || c == b) return windowStart + j;
+            }
+            i = windowStart + n;
+        }
+        return -1;
+    }
+
+    @Override
+    public long byteOffset(int index) {
+        int j = locate(index);
+        return windowByte + (j < windowLength ? byteDelta[j] : nextByte - windowByte);
+    }
+
+    @Override
+    public int line(int index) {
+        int j = locate(index);
+        int line = windowLine;
+        for (int k = 0; k < j; k++) {
+            if (window[k] == '\n') line++;
+        }
+        return line;
+    }
+
+    @Override
+    public int column(int index) {
+        int j = locate(index);
+        int column = windowColumn;
+        for (int k = 0; k < j; k++) {
+            column = window[k] == '\n' ? 1 : column + 1;
+        }
+        return column;
+    }
+
+    // Window slot of index; index may also be the end of the input (one past the last char)
+    private int locate(int index) {
+        if (has(index)) return index - windowStart;
+        if (index > 0 && has(index - 1) && index == windowStart + windowLength) return windowLength;
+        if (index == 0) return 0;
+        throw new IndexOutOfBoundsException("index " + index);
+    }
+
+    // Moves the window so it contains index; false if the input ends before it
+    private boolean ensure(int index) {
+        if (index < windowStart) seek(index);
+        while (index >= windowStart + windowLength) {
+            if (windowLength > WINDOW - 2) slide(index);
+            if (!decode()) {
+                totalChars = windowStart + windowLength;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Restarts decoding at the last checkpoint before index
+    private void seek(int index) {
+        int k = checkpoints - 1;
+        while (checkpointChar[k] > index) k--;
+        windowStart = checkpointChar[k];
+        windowByte = checkpointByte[k];
+        windowLine = checkpointLine[k];
+        windowColumn = checkpointColumn[k];
+        windowLength = 0;
+        nextByte = windowByte;
+    }
+
+    // Drops the front of a full window, keeping KEEP chars before the requested index
+    private void slide(int index) {
+        int drop = Math.min(windowLength, Math.max(windowLength - KEEP, index - KEEP - windowStart));
+        if (drop < windowLength && Character.isLowSurrogate(window[drop])) drop--; // never split a pair
+        for (int k = 0; k < drop; k++) {
+            if (window[k] == '\n') {
+                windowLine++;
+                windowColumn = 1;
+            } else {
+                windowColumn++;
+            }
+        }
+        int shift = drop < windowLength ? byteDelta[drop] : (int) (nextByte - windowByte);
+        windowLength -= drop;
+        System.arraycopy(window, drop, window, 0, windowLength);
+        for (int k = 0; k < windowLength; k++) byteDelta[k] = byteDelta[k + drop] - shift;
+        windowStart += drop;
+        windowByte += shift;
+
+        if ((windowStart >>> CHECKPOINT_SHIFT) >= checkpoints && windowStart > checkpointChar[checkpoints - 1]) {
+            addCheckpoint();
+        }
+    }
+
+    private void addCheckpoint() {
+        if (checkpoints == checkpointChar.length) {
+            int capacity = checkpoints * 2;
+            checkpointChar = Arrays.copyOf(checkpointChar, capacity);
+            checkpointByte = Arrays.copyOf(checkpointByte, capacity);
+            checkpointLine = Arrays.copyOf(checkpointLine, capacity);
+            checkpointColumn = Arrays.copyOf(checkpointColumn, capacity);
+        }
+        checkpointChar[checkpoints] = windowStart;
+        checkpointByte[checkpoints] = windowByte;
+        checkpointLine[checkpoints] = windowLine;
+        checkpointColumn[checkpoints] = windowColumn;
+        checkpoints++;
+    }
+
+    // Decodes the next chunk of bytes into the free part of the window; false at the end of input.
+    // Malformed input decodes to U+FFFD exactly as an InputStreamReader decodes it, so a mapped file
+    // lexes like the same bytes sent over HTTP: one per byte that cannot start a sequence (overlong
+    // leads, code points past U+10FFFF), one per cut-off sequence, one per encoded surrogate.
+    private boolean decode() {
+        if (nextByte >= byteLength) return false;
+        if (windowStart + windowLength > Integer.MAX_VALUE - 2 * WINDOW) {
+            throw new IllegalStateException("Input is longer than 2^31 chars; validate it in smaller pieces");
+        }
+        int n = read(nextByte);
+        int base = (int) (nextByte - windowByte);
+        int w = windowLength;
+        int j = 0;
+        while (j < n && w < WINDOW) {
+            int b = scratch[j];
+            if (b >= 0) { // ASCII fast path: find the whole run, 8 bytes at a time, then widen it
+                int run = j + 1;
+                int max = Math.min(n, j + WINDOW - w);
+                while (run + 8 <= max && ((long) LONGS.get(scratch, run) & HIGH_BITS) == 0) run += 8;
+                while (run < max && scratch[run] >= 0) run++;
+                for (; j < run; j++) {
+                    window[w] = (char) scratch[j];
+                    byteDelta[w++] = base + j;
+                }
+                continue;
+            }
+
+            // The second byte's range rules out overlong forms and code points past U+10FFFF
+            int lead = b & 0xFF;
+            int need = 1, lo = 0x80, hi = 0xBF;
+            int cp = 0xFFFD; // a stray continuation byte, C0/C1 (always overlong) or F5..FF
+            if (lead >= 0xC2 && lead <= 0xDF) {
+                need = 2;
+                cp = lead & 0x1F;
+            } else if (lead >= 0xE0 && lead <= 0xEF) {
+                need = 3;
+                cp = lead & 0x0F;
+                if (lead == 0xE0) lo = 0xA0;
+            } else if (lead >= 0xF0 && lead <= 0xF4) {
+                need = 4;
+                cp = lead & 0x07;
+                if (lead == 0xF0) lo = 0x90;
+                if (lead == 0xF4) hi = 0x8F;
+            }
+            int len = 1; // bytes of the sequence that are well-formed so far
+            while (len < need && j + len < n) {
+                int c = scratch[j + len] & 0xFF;
+                if (c < (len == 1 ? lo : 0x80) || c > (len == 1 ? hi : 0xBF)) break;
+                cp = (cp << 6) | (c & 0x3F);
+                len++;
+            }
+            if (len < need && j + len == n && j > 0 && nextByte + n < byteLength) break; // continues in the next chunk
+            if (len < need || (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)) {
+                cp = 0xFFFD; // one for a cut-off sequence and one for an encoded surrogate, like the JDK decoder
+            }
+            if (cp >= 0x10000) {
+                if (w + 2 > WINDOW) break;
+                window[w] = Character.highSurrogate(cp);
+                byteDelta[w++] = base + j;
+                window[w] = Character.lowSurrogate(cp);
+                byteDelta[w++] = base + j;
+            } else {
+                window[w] = (char) cp;
+                byteDelta[w++] = base + j;
+            }
+            j += len;
+        }
+        windowLength = w;
+        nextByte += j;
+        return true;
+    }
+
+    // Copies up to SCRATCH bytes starting at offset into scratch, crossing region boundaries
+    private int read(long offset) {
+        int n = (int) Math.min(SCRATCH, byteLength - offset);
+        int done = 0;
+        while (done < n) {
+            long at = offset + done;
+            ByteBuffer region = regions[(int) (at >>> regionShift)];
+            int index = (int) (at & ((1L << regionShift) - 1));
+            int len = Math.min(n - done, region.limit() - index);
+            region.get(index, scratch, done, len);
+            done += len;
+        }
+        return n;
+    }
+}
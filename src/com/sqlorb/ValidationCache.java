@@ -0,0 +1,201 @@
+package com.sqlorb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sqlorb.SqlSyntaxException.Code;
+
+// Remembers verdicts by query shape, so a statement that arrives thousands of times is parsed once:
+//
+//     ValidationCache cache = new ValidationCache(10_000);
+//     cache.validate(sql); // like ParserPool.acquire(sql).parseQuery(), but cached
+//
+// The key is the query's Fingerprint: literals, case, spacing and comments do not count. A cached
+// verdict is only reused when the literals whose values mattered (GROUP BY / ORDER BY ordinals,
+// literals Rule 1 compared) read the same as when it was made; otherwise the query is parsed again.
+// Rejections are replayed with this query's own positions and token text. Rejections whose
+// message quotes the query itself (GROUP BY rule) and lexical errors are not cached.
+//
+// Eviction is segmented LRU: new shapes go into a probation segment and move to the protected
+// one (80% of the room) on their first hit, so a burst of one-off queries cannot flush the shapes
+// that keep coming back. Entries are spread over lock-striped segments by fingerprint.
+//
+// Verdicts depend on the parser's limits (setMaxDepth, setMaxInListElements); use one cache per
+// configuration. A verdict answered from the cache leaves the parser's IN list counters untouched.
+public final class ValidationCache {
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ValidationCache(int maxEntries) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be >= 1: " + maxEntries);
+        int count = maxEntries < STRIPES * 8 ? 1 : STRIPES;
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(maxEntries / count + (i < maxEntries % count ? 1 : 0));
+        }
+    }
+
+    // Validates sql on this thread's pooled parser; throws SqlSyntaxException like parseQuery()
+    public void validate(CharSequence sql) {
+        validate(ParserPool.acquire(sql));
+    }
+
+    // Validates the query parser was just reset to. On a miss the parser parses it as usual.
+    public void validate(Parser parser) {
+        lex(parser);
+        check(parser);
+    }
+
+    // The first half of validate(), for callers that time the phases: lexes the whole query and
+    // folds its fingerprint. A query that does not lex is validated uncached right here.
+    public void lex(Parser parser) {
+        TokenBuffer tokens = parser.tokens();
+        tokens.setFingerprinting(true);
+        try {
+            parser.lexAll();
+        } catch (SqlLexicalException e) {
+            // the streaming parser may reject earlier text first; let it decide, uncached
+            misses.increment();
+            parser.reset(tokens.source());
+            parser.parseQuery();
+            throw e; // not reached: the query does not lex, so parseQuery() threw
+        }
+    }
+
+    // The second half of validate(), right after lex(parser): the cached verdict, or a parse
+    public void check(Parser parser) {
+        TokenBuffer tokens = parser.tokens();
+        Fingerprint key = tokens.fingerprint();
+        Stripe stripe = stripes[(int) (key.low >>> 32) & (stripes.length - 1)];
+        Entry entry = stripe.get(key);
+        if (entry != null && entry.matches(tokens)) {
+            hits.increment();
+            entry.replay(tokens);
+            return;
+        }
+
+        misses.increment();
+        try {
+            parser.parseQuery();
+            stripe.put(key, new Entry(null, parser, tokens));
+        } catch (SqlSyntaxException e) {
+            if (e.code != Code.GROUP_BY_RULE) stripe.put(key, new Entry(e, parser, tokens));
+            throw e;
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) size += stripe.size();
+        return size;
+    }
+
+    // A verdict: valid (code == null) or the rejection to replay, plus the literals it read
+    private static final class Entry {
+        final Code code;
+        final int tokenIndex;  // -1 for semantic rejections, which have no position
+        final String detail;
+        final int[] literals;  // token indexes
+        final String[] texts;  // their text when the verdict was made
+
+        Entry(SqlSyntaxException e, Parser parser, TokenBuffer tokens) {
+            code = e == null ? null : e.code;
+            tokenIndex = e == null ? -1 : e.tokenIndex;
+            detail = e == null ? null : e.detail();
+            literals = new int[parser.literalsRead()];
+            texts = new String[literals.length];
+            for (int k = 0; k < literals.length; k++) {
+                literals[k] = parser.literalRead(k);
+                texts[k] = tokens.text(literals[k]);
+            }
+        }
+
+        boolean matches(TokenBuffer tokens) {
+            for (int k = 0; k < literals.length; k++) {
+                if (!tokens.text(literals[k]).equals(texts[k])) return false;
+            }
+            return true;
+        }
+
+        void replay(TokenBuffer tokens) {
+            if (code == null) return;
+            if (tokenIndex < 0) throw new SqlSemanticException(code, detail);
+            // MISSING_COMMA quotes the column before the offending token, as this query spells it
+            String text = code == Code.MISSING_COMMA ? tokens.text(tokenIndex - 1) : detail;
+            throw new SqlSyntaxException(code, tokenIndex, tokens.start(tokenIndex), tokens.source(), tokens.token(tokenIndex), text);
+        }
+    }
+
+    // One lock's worth of the cache: two LinkedHashMaps in access order, eldest first
+    private final class Stripe {
+        private final LinkedHashMap<Fingerprint, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Fingerprint, Entry> protect = new LinkedHashMap<>(16, 0.75f, true);
+        private final int probationCapacity;
+        private final int protectedCapacity;
+
+        Stripe(int capacity) {
+            protectedCapacity = capacity * 4 / 5;
+            probationCapacity = capacity - protectedCapacity;
+        }
+
+        synchronized Entry get(Fingerprint key) {
+            Entry entry = protect.get(key);
+            if (entry != null) return entry;
+            entry = probation.remove(key);
+            if (entry == null) return null;
+            if (protectedCapacity == 0) {
+                probation.put(key, entry);
+                return entry;
+            }
+            protect.put(key, entry); // second use: promote
+            if (protect.size() > protectedCapacity) {
+                Iterator<Map.Entry<Fingerprint, Entry>> eldest = protect.entrySet().iterator();
+                Map.Entry<Fingerprint, Entry> demoted = eldest.next();
+                eldest.remove();
+                probation.put(demoted.getKey(), demoted.getValue());
+                trimProbation();
+            }
+            return entry;
+        }
+
+        synchronized void put(Fingerprint key, Entry entry) {
+            if (protect.containsKey(key)) {
+                protect.put(key, entry);
+                return;
+            }
+            probation.put(key, entry);
+            trimProbation();
+        }
+
+        private void trimProbation() {
+            Iterator<Fingerprint> eldest = probation.keySet().iterator();
+            while (probation.size() > probationCapacity) {
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+
+        synchronized int size() {
+            return probation.size() + protect.size();
+        }
+    }
+}